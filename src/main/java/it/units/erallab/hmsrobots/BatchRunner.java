@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots;
+
+import it.units.erallab.hmsrobots.objects.DescriptionCodec;
+import it.units.erallab.hmsrobots.objects.Ground;
+import it.units.erallab.hmsrobots.objects.Robot;
+import it.units.erallab.hmsrobots.tasks.Locomotion;
+import it.units.erallab.hmsrobots.util.Util;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.dyn4j.dynamics.Settings;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+/**
+ * Headless evaluator of {@link Robot.Description}s on {@link Locomotion}, meant to be run on batch nodes.
+ * <p>
+ * Jobs are read from a CSV file with header {@code name,terrain,metrics,description}, where {@code terrain} is a name
+ * accepted by {@link Locomotion#createTerrain(String)} or {@link Locomotion#createGround(String)}, {@code metrics} is a {@code ;}-separated list of
+ * {@link Locomotion.Metric} names, and {@code description} is the output of {@link Util#serialize(Serializable, boolean)}
+ * (compressed) or of {@link DescriptionCodec#serialize(Robot.Description)}. Results are streamed, in completion order, as CSV (one row per job and metric) or as JSON lines (one
+ * object per job). Jobs with the same terrain and metrics share one {@link Locomotion} which reuses, on each thread,
+ * world, ground and, for robots with the same body, the robot itself. This class does not touch any AWT or Swing class.
+ * <p>
+ * Usage: {@code java it.units.erallab.hmsrobots.BatchRunner jobs=<file> [output=<file>|-] [format=csv|json]
+ * [threads=<n>] [finalT=<s>] [stepFrequency=<s>]}.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class BatchRunner {
+
+  static {
+    if (System.getProperty("java.awt.headless") == null) {
+      System.setProperty("java.awt.headless", "true");
+    }
+    try {
+      LogManager.getLogManager().readConfiguration(BatchRunner.class.getClassLoader().getResourceAsStream("logging.properties"));
+    } catch (IOException | SecurityException | NullPointerException ex) {
+      //ignore
+    }
+  }
+
+  public enum Format {
+    CSV, JSON
+  }
+
+  public static class Job {
+
+    private final int index;
+    private final String name;
+    private final String terrain;
+    private final List<Locomotion.Metric> metrics;
+    private final String serializedDescription;
+
+    public Job(int index, String name, String terrain, List<Locomotion.Metric> metrics, String serializedDescription) {
+      this.index = index;
+      this.name = name;
+      this.terrain = terrain;
+      this.metrics = metrics;
+      this.serializedDescription = serializedDescription;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getTerrain() {
+      return terrain;
+    }
+
+    public List<Locomotion.Metric> getMetrics() {
+      return metrics;
+    }
+
+    public String getSerializedDescription() {
+      return serializedDescription;
+    }
+  }
+
+  public static class Outcome {
+
+    private final Job job;
+    private final List<Double> values;
+    private final double elapsedSeconds;
+    private final String error;
+
+    public Outcome(Job job, List<Double> values, double elapsedSeconds, String error) {
+      this.job = job;
+      this.values = values;
+      this.elapsedSeconds = elapsedSeconds;
+      this.error = error;
+    }
+
+    public Job getJob() {
+      return job;
+    }
+
+    public List<Double> getValues() {
+      return values;
+    }
+
+    public double getElapsedSeconds() {
+      return elapsedSeconds;
+    }
+
+    public String getError() {
+      return error;
+    }
+  }
+
+  private final static String[] CSV_HEADER = new String[]{"index", "name", "terrain", "metric", "value", "elapsed.seconds", "error"};
+
+  private final double finalT;
+  private final Settings settings;
+  private final Format format;
+  private final ExecutorService executor;
+  private final int maxInFlight;
+  private final Map<List<Object>, Locomotion> locomotions;
+
+  private static final Logger L = Logger.getLogger(BatchRunner.class.getName());
+
+  public BatchRunner(double finalT, Settings settings, Format format, ExecutorService executor, int maxInFlight) {
+    this.finalT = finalT;
+    this.settings = settings;
+    this.format = format;
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    locomotions = new ConcurrentHashMap<>();
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> arguments = new HashMap<>();
+    for (String arg : args) {
+      String[] pieces = arg.split("=", 2);
+      arguments.put(pieces[0], pieces.length > 1 ? pieces[1] : "");
+    }
+    if (!arguments.containsKey("jobs")) {
+      System.err.println("Usage: BatchRunner jobs=<file> [output=<file>|-] [format=csv|json] [threads=<n>] [finalT=<s>] [stepFrequency=<s>]");
+      System.exit(-1);
+    }
+    int threads = Integer.parseInt(arguments.getOrDefault("threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+    Settings settings = new Settings();
+    if (arguments.containsKey("stepFrequency")) {
+      settings.setStepFrequency(Double.parseDouble(arguments.get("stepFrequency")));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    BatchRunner runner = new BatchRunner(
+        Double.parseDouble(arguments.getOrDefault("finalT", "60")),
+        settings,
+        Format.valueOf(arguments.getOrDefault("format", "csv").toUpperCase()),
+        executor,
+        threads * 2
+    );
+    String output = arguments.getOrDefault("output", "-");
+    try (
+        Reader reader = new InputStreamReader(new FileInputStream(arguments.get("jobs")), StandardCharsets.UTF_8);
+        Writer writer = output.equals("-") ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8) : new FileWriter(output, StandardCharsets.UTF_8)
+    ) {
+      runner.run(reader, writer);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public void run(Reader jobsReader, Writer resultsWriter) throws IOException {
+    CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().withTrim().parse(jobsReader);
+    CSVPrinter printer = format.equals(Format.CSV) ? new CSVPrinter(resultsWriter, CSVFormat.DEFAULT.withHeader(CSV_HEADER)) : null;
+    CompletionService<Outcome> completionService = new ExecutorCompletionService<>(executor);
+    int inFlight = 0;
+    int submitted = 0;
+    int written = 0;
+    long startingNanos = System.nanoTime();
+    for (CSVRecord record : parser) {
+      Job job;
+      try {
+        job = parse(submitted, record);
+      } catch (IllegalArgumentException ex) {
+        L.log(Level.SEVERE, String.format("Skipping job at line %d due to %s", record.getRecordNumber(), ex), ex);
+        continue;
+      }
+      completionService.submit(() -> evaluate(job));
+      submitted = submitted + 1;
+      inFlight = inFlight + 1;
+      //bound the number of descriptions kept in memory
+      while (inFlight >= maxInFlight) {
+        write(take(completionService), printer, resultsWriter);
+        inFlight = inFlight - 1;
+        written = written + 1;
+      }
+    }
+    while (inFlight > 0) {
+      write(take(completionService), printer, resultsWriter);
+      inFlight = inFlight - 1;
+      written = written + 1;
+    }
+    resultsWriter.flush();
+    double elapsedSeconds = (double) (System.nanoTime() - startingNanos) / 1000000000d;
+    L.info(String.format("%d jobs done in %.1fs (%.2f jobs/s)", written, elapsedSeconds, (double) written / elapsedSeconds));
+  }
+
+  private static Job parse(int index, CSVRecord record) {
+    List<Locomotion.Metric> metrics = new ArrayList<>();
+    for (String metricName : record.get("metrics").split(";")) {
+      if (!metricName.isBlank()) {
+        metrics.add(Locomotion.Metric.valueOf(metricName.trim().toUpperCase()));
+      }
+    }
+    return new Job(index, record.get("name"), record.get("terrain"), metrics, record.get("description"));
+  }
+
+  private Outcome evaluate(Job job) {
+    long startingNanos = System.nanoTime();
+    try {
+      double[][] terrain = Locomotion.createTerrain(job.getTerrain());
+      Ground ground = (terrain == null) ? Locomotion.createGround(job.getTerrain()) : null;
+      if ((terrain == null) && (ground == null)) {
+        throw new IllegalArgumentException(String.format("Unknown terrain %s", job.getTerrain()));
+      }
+      Robot.Description description = DescriptionCodec.isSerialized(job.getSerializedDescription())
+          ? DescriptionCodec.deserialize(job.getSerializedDescription())
+          : Util.deserialize(job.getSerializedDescription(), true);
+      Locomotion locomotion = locomotions.computeIfAbsent(
+          List.of(job.getTerrain(), job.getMetrics()),
+          k -> (ground != null)
+              ? new Locomotion(finalT, ground, job.getMetrics(), 0d, settings, true)
+              : new Locomotion(finalT, terrain, job.getMetrics(), 0d, settings, true)
+      );
+      List<Double> values = locomotion.apply(description);
+      return new Outcome(job, values, (double) (System.nanoTime() - startingNanos) / 1000000000d, null);
+    } catch (Throwable t) {
+      L.log(Level.SEVERE, String.format("Cannot evaluate job %d (%s) due to %s", job.getIndex(), job.getName(), t), t);
+      return new Outcome(job, null, (double) (System.nanoTime() - startingNanos) / 1000000000d, t.toString());
+    }
+  }
+
+  private static Outcome take(CompletionService<Outcome> completionService) throws IOException {
+    try {
+      return completionService.take().get();
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new IOException(String.format("Cannot obtain one result due to %s", ex), ex);
+    }
+  }
+
+  private void write(Outcome outcome, CSVPrinter printer, Writer writer) throws IOException {
+    Job job = outcome.getJob();
+    L.fine(String.format("Job %d (%s) done in %.3fs", job.getIndex(), job.getName(), outcome.getElapsedSeconds()));
+    if (format.equals(Format.CSV)) {
+      if (outcome.getValues() == null) {
+        printer.printRecord(job.getIndex(), job.getName(), job.getTerrain(), null, null, outcome.getElapsedSeconds(), outcome.getError());
+      } else {
+        for (int i = 0; i < job.getMetrics().size(); i++) {
+          printer.printRecord(job.getIndex(), job.getName(), job.getTerrain(), job.getMetrics().get(i).name(), outcome.getValues().get(i), outcome.getElapsedSeconds(), null);
+        }
+      }
+      printer.flush();
+    } else {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"index\":").append(job.getIndex());
+      sb.append(",\"name\":").append(jsonString(job.getName()));
+      sb.append(",\"terrain\":").append(jsonString(job.getTerrain()));
+      sb.append(",\"elapsedSeconds\":").append(jsonNumber(outcome.getElapsedSeconds()));
+      if (outcome.getValues() != null) {
+        sb.append(",\"results\":{");
+        for (int i = 0; i < job.getMetrics().size(); i++) {
+          sb.append(i > 0 ? "," : "").append(jsonString(job.getMetrics().get(i).name())).append(":").append(jsonNumber(outcome.getValues().get(i)));
+        }
+        sb.append("}");
+      } else {
+        sb.append(",\"error\":").append(jsonString(outcome.getError()));
+      }
+      sb.append("}");
+      writer.write(sb.toString());
+      writer.write(System.lineSeparator());
+      writer.flush();
+    }
+  }
+
+  private static String jsonNumber(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return "null";
+    }
+    return Double.toString(value);
+  }
+
+  private static String jsonString(String s) {
+    if (s == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder("\"");
+    for (char c : s.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append("\"").toString();
+  }
+
+}
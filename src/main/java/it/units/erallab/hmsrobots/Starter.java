@@ -189,6 +189,7 @@ public class Starter {
         30,
         Locomotion.createTerrain("uneven5"),
         Lists.newArrayList(Locomotion.Metric.TRAVEL_X_VELOCITY),
+        GridOnlineViewer.FRAME_RATE,
         settings
     );
     Grid<Pair<String, Robot.Description>> namedSolutionGrid = Grid.create(2, 2);
@@ -62,6 +62,14 @@ public class CentralizedMLP extends FlatSensing implements Parametrized {
     return mlp.apply(mlpInputs);
   }
 
+  public MultiLayerPerceptron getMlp() {
+    return mlp;
+  }
+
+  public SerializableFunction<Double, Double> getDrivingFunction() {
+    return drivingFunction;
+  }
+
   @Override
   public double[] getParams() {
     return mlp.getParams();
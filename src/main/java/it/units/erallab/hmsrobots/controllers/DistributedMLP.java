@@ -156,6 +156,14 @@ public class DistributedMLP implements Controller, Parametrized {
     return flatValues;
   }
 
+  public Grid<MultiLayerPerceptron> getMlpGrid() {
+    return mlpGrid;
+  }
+
+  public int getSignals() {
+    return signals;
+  }
+
   @Override
   public double[] getParams() {
     int size = mlpGrid.values().stream()
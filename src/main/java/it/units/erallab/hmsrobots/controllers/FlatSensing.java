@@ -43,6 +43,10 @@ public abstract class FlatSensing implements Controller {
         .count();
   }
 
+  public Grid<Voxel.Description> getVoxelGrid() {
+    return voxelGrid;
+  }
+
   protected int nOfInputs() {
     return nOfInputs;
   }
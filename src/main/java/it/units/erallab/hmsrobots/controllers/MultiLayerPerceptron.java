@@ -141,6 +141,10 @@ public class MultiLayerPerceptron implements Serializable, Function<double[], do
     return neurons;
   }
 
+  public ActivationFunction getActivationFunction() {
+    return activationFunction;
+  }
+
   @Override
   public double[] getParams() {
     return MultiLayerPerceptron.flat(weights, neurons);
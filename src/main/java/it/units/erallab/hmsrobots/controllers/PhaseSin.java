@@ -26,10 +26,14 @@ import java.util.Objects;
  */
 public class PhaseSin extends TimeFunctions {
 
+  private final double frequency;
+  private final double amplitude;
   private final Grid<Double> phases;
 
   public PhaseSin(double frequency, double amplitude, Grid<Double> phases) {
     super(getFunctions(frequency, amplitude, phases));
+    this.frequency = frequency;
+    this.amplitude = amplitude;
     this.phases = phases;
   }
 
@@ -46,6 +50,8 @@ public class PhaseSin extends TimeFunctions {
   @Override
   public int hashCode() {
     int hash = 7;
+    hash = 83 * hash + Double.hashCode(this.frequency);
+    hash = 83 * hash + Double.hashCode(this.amplitude);
     hash = 83 * hash + Objects.hashCode(this.phases);
     return hash;
   }
@@ -62,9 +68,23 @@ public class PhaseSin extends TimeFunctions {
       return false;
     }
     final PhaseSin other = (PhaseSin) obj;
+    if (Double.compare(this.frequency, other.frequency) != 0) {
+      return false;
+    }
+    if (Double.compare(this.amplitude, other.amplitude) != 0) {
+      return false;
+    }
     return Objects.equals(this.phases, other.phases);
   }
   
+  public double getFrequency() {
+    return frequency;
+  }
+
+  public double getAmplitude() {
+    return amplitude;
+  }
+
   public Grid<Double> getPhases() {
     return phases;
   }
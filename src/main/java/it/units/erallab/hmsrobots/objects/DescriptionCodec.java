@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.objects;
+
+import it.units.erallab.hmsrobots.controllers.*;
+import it.units.erallab.hmsrobots.sensors.*;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.SerializableFunction;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact binary codec for {@link Robot.Description}s.
+ * <p>
+ * The voxel grid is written as a bitmap of filled cells plus a palette of the distinct {@link Voxel.Description}s;
+ * known sensors and controllers are written as a type tag followed by their parameters (for controllers, the flat
+ * {@link it.units.erallab.hmsrobots.util.Parametrized#getParams()} arrays). Objects that the codec does not know (e.g.,
+ * {@link TimeFunctions}, whose functions are lambdas) are written as a length-prefixed blob of standard Java
+ * serialization, hence every serializable description can be encoded.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class DescriptionCodec {
+
+  private final static byte[] MAGIC = new byte[]{'V', 'S', 'R'};
+  private final static byte VERSION = 1;
+  private final static int MAX_BITMAP_CELLS = 1 << 20;
+
+  private final static byte NULL = 0;
+  private final static byte JAVA = 1;
+
+  private final static byte SENSOR_ANGLE = 2;
+  private final static byte SENSOR_APPLIED_FORCE = 3;
+  private final static byte SENSOR_AREA_RATIO = 4;
+  private final static byte SENSOR_BREAKDOWN = 5;
+  private final static byte SENSOR_TOUCH = 6;
+  private final static byte SENSOR_VELOCITY = 7;
+  private final static byte SENSOR_AVERAGE = 8;
+  private final static byte SENSOR_DERIVATIVE = 9;
+  private final static byte SENSOR_NORMALIZATION = 10;
+
+  private final static byte CONTROLLER_PHASE_SIN = 2;
+  private final static byte CONTROLLER_CENTRALIZED_MLP = 3;
+  private final static byte CONTROLLER_DISTRIBUTED_MLP = 4;
+
+  private DescriptionCodec() {
+  }
+
+  public static byte[] encode(Robot.Description description) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    encode(description, out);
+    out.flush();
+    return baos.toByteArray();
+  }
+
+  /**
+   * Encodes the structure of a voxel grid and the values of its voxel descriptions, including their sensors, one by
+   * one, i.e., without a palette: two voxel grids with the same encoding build equal voxels, regardless of which
+   * instances of descriptions and sensors they are made of. The encoding cannot be decoded.
+   */
+  public static byte[] encodeVoxels(Grid<Voxel.Description> voxelGrid) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    writeBitmap(voxelGrid, out);
+    for (Voxel.Description voxelDescription : voxelGrid.values()) {
+      if (voxelDescription != null) {
+        writeVoxelDescription(voxelDescription, out);
+      }
+    }
+    out.flush();
+    return baos.toByteArray();
+  }
+
+  public static Robot.Description decode(byte[] bytes) throws IOException {
+    return decode(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+
+  public static String serialize(Robot.Description description) throws IOException {
+    return Base64.getEncoder().encodeToString(encode(description));
+  }
+
+  public static Robot.Description deserialize(String s) throws IOException {
+    return decode(Base64.getDecoder().decode(s));
+  }
+
+  public static boolean isSerialized(String s) {
+    //the Base64 encoding of MAGIC is a fixed 4-chars prefix
+    return s.startsWith(Base64.getEncoder().encodeToString(MAGIC));
+  }
+
+  public static void encode(Robot.Description description, DataOutput out) throws IOException {
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+    Grid<Voxel.Description> voxelGrid = description.getVoxelDescriptionGrid();
+    //build palette
+    List<Voxel.Description> palette = new ArrayList<>();
+    Map<Voxel.Description, Integer> paletteIndexes = new HashMap<>();
+    for (Voxel.Description voxelDescription : voxelGrid.values()) {
+      if ((voxelDescription != null) && !paletteIndexes.containsKey(voxelDescription)) {
+        paletteIndexes.put(voxelDescription, palette.size());
+        palette.add(voxelDescription);
+      }
+    }
+    //write grid
+    writeBitmap(voxelGrid, out);
+    out.writeInt(palette.size());
+    for (Voxel.Description voxelDescription : palette) {
+      writeVoxelDescription(voxelDescription, out);
+    }
+    for (Voxel.Description voxelDescription : voxelGrid.values()) {
+      if (voxelDescription != null) {
+        out.writeInt(paletteIndexes.get(voxelDescription));
+      }
+    }
+    //write controller
+    writeController(description.getController(), voxelGrid, out);
+  }
+
+  public static Robot.Description decode(DataInput in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not an encoded robot description");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException(String.format("Unsupported version %d", version));
+    }
+    //read grid
+    Grid<Boolean> bitmap = readBitmap(in);
+    int paletteSize = readCount(in, "palette entries");
+    if (paletteSize > bitmap.getW() * bitmap.getH()) {
+      throw new IOException(String.format("Palette size %d exceeds grid size", paletteSize));
+    }
+    Voxel.Description[] palette = new Voxel.Description[paletteSize];
+    for (int i = 0; i < paletteSize; i++) {
+      palette[i] = readVoxelDescription(in);
+    }
+    Grid<Voxel.Description> voxelGrid = Grid.create(bitmap.getW(), bitmap.getH());
+    for (int y = 0; y < bitmap.getH(); y++) {
+      for (int x = 0; x < bitmap.getW(); x++) {
+        if (bitmap.get(x, y)) {
+          int index = in.readInt();
+          if ((index < 0) || (index >= palette.length)) {
+            throw new IOException(String.format("Palette index %d out of range [0,%d)", index, palette.length));
+          }
+          voxelGrid.set(x, y, palette[index]);
+        }
+      }
+    }
+    //read controller
+    Controller controller = readController(voxelGrid, in);
+    return new Robot.Description(voxelGrid, controller);
+  }
+
+  private static void writeBitmap(Grid<?> grid, DataOutput out) throws IOException {
+    out.writeInt(grid.getW());
+    out.writeInt(grid.getH());
+    byte[] bits = new byte[(grid.getW() * grid.getH() + 7) / 8];
+    int c = 0;
+    for (Object o : grid.values()) {
+      if (o != null) {
+        bits[c / 8] = (byte) (bits[c / 8] | (1 << (c % 8)));
+      }
+      c = c + 1;
+    }
+    out.write(bits);
+  }
+
+  private static Grid<Boolean> readBitmap(DataInput in) throws IOException {
+    int w = in.readInt();
+    int h = in.readInt();
+    if ((w <= 0) || (h <= 0) || ((long) w * (long) h > MAX_BITMAP_CELLS)) {
+      throw new IOException(String.format("Invalid grid size %dx%d", w, h));
+    }
+    byte[] bits = new byte[(w * h + 7) / 8];
+    in.readFully(bits);
+    //values() is row-major, as the grid iterator
+    return Grid.create(w, h, (x, y) -> {
+      int c = y * w + x;
+      return (bits[c / 8] & (1 << (c % 8))) != 0;
+    });
+  }
+
+  private static void writeVoxelDescription(Voxel.Description d, DataOutput out) throws IOException {
+    out.writeDouble(d.getSideLength());
+    out.writeDouble(d.getMassSideLengthRatio());
+    out.writeDouble(d.getSpringF());
+    out.writeDouble(d.getSpringD());
+    out.writeDouble(d.getMassLinearDamping());
+    out.writeDouble(d.getMassAngularDamping());
+    out.writeDouble(d.getMaxForce());
+    out.writeDouble(d.getAreaRatioOffset());
+    out.writeDouble(d.getFriction());
+    out.writeDouble(d.getRestitution());
+    out.writeDouble(d.getMass());
+    out.writeBoolean(d.isLimitContractionFlag());
+    out.writeBoolean(d.isMassCollisionFlag());
+    out.writeByte(d.getForceMethod().ordinal());
+    out.writeByte(enumSetToBits(d.getSpringScaffoldings()));
+    out.writeInt(d.getSensors().size());
+    for (Sensor sensor : d.getSensors()) {
+      writeSensor(sensor, out);
+    }
+  }
+
+  private static Voxel.Description readVoxelDescription(DataInput in) throws IOException {
+    //fields are read in the same order as they are written
+    double sideLength = in.readDouble();
+    double massSideLengthRatio = in.readDouble();
+    double springF = in.readDouble();
+    double springD = in.readDouble();
+    double massLinearDamping = in.readDouble();
+    double massAngularDamping = in.readDouble();
+    double maxForce = in.readDouble();
+    double areaRatioOffset = in.readDouble();
+    double friction = in.readDouble();
+    double restitution = in.readDouble();
+    double mass = in.readDouble();
+    boolean limitContractionFlag = in.readBoolean();
+    boolean massCollisionFlag = in.readBoolean();
+    Voxel.ForceMethod forceMethod = readEnum(in.readByte(), Voxel.ForceMethod.class);
+    EnumSet<Voxel.SpringScaffolding> springScaffoldings = bitsToEnumSet(in.readByte(), Voxel.SpringScaffolding.class);
+    int nOfSensors = readCount(in, "sensors");
+    List<Sensor> sensors = new ArrayList<>(nOfSensors);
+    for (int i = 0; i < nOfSensors; i++) {
+      sensors.add(readSensor(in));
+    }
+    return new Voxel.Description(
+        sideLength, massSideLengthRatio, springF, springD, massLinearDamping, massAngularDamping, maxForce,
+        areaRatioOffset, friction, restitution, mass, limitContractionFlag, massCollisionFlag, forceMethod,
+        springScaffoldings, sensors
+    );
+  }
+
+  private static void writeSensor(Sensor sensor, DataOutput out) throws IOException {
+    if (sensor == null) {
+      out.writeByte(NULL);
+    } else if (sensor.getClass().equals(Angle.class)) {
+      out.writeByte(SENSOR_ANGLE);
+    } else if (sensor.getClass().equals(AppliedForce.class)) {
+      out.writeByte(SENSOR_APPLIED_FORCE);
+    } else if (sensor.getClass().equals(AreaRatio.class)) {
+      out.writeByte(SENSOR_AREA_RATIO);
+    } else if (sensor.getClass().equals(Breakdown.class)) {
+      out.writeByte(SENSOR_BREAKDOWN);
+    } else if (sensor.getClass().equals(Touch.class)) {
+      out.writeByte(SENSOR_TOUCH);
+    } else if (sensor.getClass().equals(Velocity.class)) {
+      Velocity velocity = (Velocity) sensor;
+      out.writeByte(SENSOR_VELOCITY);
+      out.writeBoolean(velocity.isRotated());
+      out.writeDouble(velocity.getMaxVelocityNorm());
+      out.writeByte(enumSetToBits(velocity.getAxes()));
+    } else if (sensor.getClass().equals(Average.class)) {
+      out.writeByte(SENSOR_AVERAGE);
+      out.writeDouble(((Average) sensor).getInterval());
+      writeSensor(((Average) sensor).getSensor(), out);
+    } else if (sensor.getClass().equals(Derivative.class)) {
+      out.writeByte(SENSOR_DERIVATIVE);
+      writeSensor(((Derivative) sensor).getSensor(), out);
+    } else if (sensor.getClass().equals(Normalization.class)) {
+      out.writeByte(SENSOR_NORMALIZATION);
+      writeSensor(((Normalization) sensor).getSensor(), out);
+    } else {
+      out.writeByte(JAVA);
+      writeJava(sensor, out);
+    }
+  }
+
+  private static Sensor readSensor(DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case JAVA:
+        return (Sensor) readJava(in);
+      case SENSOR_ANGLE:
+        return new Angle();
+      case SENSOR_APPLIED_FORCE:
+        return new AppliedForce();
+      case SENSOR_AREA_RATIO:
+        return new AreaRatio();
+      case SENSOR_BREAKDOWN:
+        return new Breakdown();
+      case SENSOR_TOUCH:
+        return new Touch();
+      case SENSOR_VELOCITY:
+        boolean rotated = in.readBoolean();
+        double maxVelocityNorm = in.readDouble();
+        return new Velocity(rotated, maxVelocityNorm, bitsToEnumSet(in.readByte(), Velocity.Axis.class));
+      case SENSOR_AVERAGE:
+        double interval = in.readDouble();
+        return new Average(readSensor(in), interval);
+      case SENSOR_DERIVATIVE:
+        return new Derivative(readSensor(in));
+      case SENSOR_NORMALIZATION:
+        return new Normalization(readSensor(in));
+      default:
+        throw new IOException(String.format("Unknown sensor tag %d", tag));
+    }
+  }
+
+  private static void writeController(Controller controller, Grid<Voxel.Description> voxelGrid, DataOutput out) throws IOException {
+    if (controller == null) {
+      out.writeByte(NULL);
+    } else if (controller.getClass().equals(PhaseSin.class)) {
+      PhaseSin phaseSin = (PhaseSin) controller;
+      out.writeByte(CONTROLLER_PHASE_SIN);
+      out.writeDouble(phaseSin.getFrequency());
+      out.writeDouble(phaseSin.getAmplitude());
+      writeBitmap(phaseSin.getPhases(), out);
+      for (Double phase : phaseSin.getPhases().values()) {
+        if (phase != null) {
+          out.writeDouble(phase);
+        }
+      }
+    } else if (controller.getClass().equals(CentralizedMLP.class) && (((CentralizedMLP) controller).getVoxelGrid() == voxelGrid)) {
+      CentralizedMLP centralizedMLP = (CentralizedMLP) controller;
+      out.writeByte(CONTROLLER_CENTRALIZED_MLP);
+      writeMLP(centralizedMLP.getMlp(), out);
+      if (centralizedMLP.getDrivingFunction() == null) {
+        out.writeByte(NULL);
+      } else {
+        out.writeByte(JAVA);
+        writeJava(centralizedMLP.getDrivingFunction(), out);
+      }
+    } else if (controller.getClass().equals(DistributedMLP.class)) {
+      DistributedMLP distributedMLP = (DistributedMLP) controller;
+      out.writeByte(CONTROLLER_DISTRIBUTED_MLP);
+      out.writeInt(distributedMLP.getSignals());
+      writeBitmap(distributedMLP.getMlpGrid(), out);
+      for (MultiLayerPerceptron mlp : distributedMLP.getMlpGrid().values()) {
+        if (mlp != null) {
+          writeMLP(mlp, out);
+        }
+      }
+    } else {
+      out.writeByte(JAVA);
+      writeJava(controller, out);
+    }
+  }
+
+  private static Controller readController(Grid<Voxel.Description> voxelGrid, DataInput in) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case JAVA:
+        return (Controller) readJava(in);
+      case CONTROLLER_PHASE_SIN:
+        double frequency = in.readDouble();
+        double amplitude = in.readDouble();
+        Grid<Boolean> phasesBitmap = readBitmap(in);
+        Grid<Double> phases = Grid.create(phasesBitmap.getW(), phasesBitmap.getH());
+        for (int y = 0; y < phases.getH(); y++) {
+          for (int x = 0; x < phases.getW(); x++) {
+            if (phasesBitmap.get(x, y)) {
+              phases.set(x, y, in.readDouble());
+            }
+          }
+        }
+        return new PhaseSin(frequency, amplitude, phases);
+      case CONTROLLER_CENTRALIZED_MLP:
+        MultiLayerPerceptron mlp = readMLP(in);
+        SerializableFunction<Double, Double> drivingFunction = null;
+        if (in.readByte() == JAVA) {
+          drivingFunction = readDrivingFunction(in);
+        }
+        return new CentralizedMLP(voxelGrid, mlp, drivingFunction);
+      case CONTROLLER_DISTRIBUTED_MLP:
+        int signals = in.readInt();
+        Grid<Boolean> mlpBitmap = readBitmap(in);
+        Grid<MultiLayerPerceptron> mlpGrid = Grid.create(mlpBitmap.getW(), mlpBitmap.getH());
+        for (int y = 0; y < mlpGrid.getH(); y++) {
+          for (int x = 0; x < mlpGrid.getW(); x++) {
+            if (mlpBitmap.get(x, y)) {
+              mlpGrid.set(x, y, readMLP(in));
+            }
+          }
+        }
+        return new DistributedMLP(mlpGrid, signals);
+      default:
+        throw new IOException(String.format("Unknown controller tag %d", tag));
+    }
+  }
+
+  //the blob is the one written by writeController from the SerializableFunction<Double, Double> of a CentralizedMLP
+  @SuppressWarnings("unchecked")
+  private static SerializableFunction<Double, Double> readDrivingFunction(DataInput in) throws IOException {
+    return (SerializableFunction<Double, Double>) readJava(in);
+  }
+
+  private static void writeMLP(MultiLayerPerceptron mlp, DataOutput out) throws IOException {
+    out.writeByte(mlp.getActivationFunction().ordinal());
+    out.writeInt(mlp.getNeurons().length);
+    for (int n : mlp.getNeurons()) {
+      out.writeInt(n);
+    }
+    writeDoubles(mlp.getParams(), out);
+  }
+
+  private static MultiLayerPerceptron readMLP(DataInput in) throws IOException {
+    MultiLayerPerceptron.ActivationFunction activationFunction = readEnum(in.readByte(), MultiLayerPerceptron.ActivationFunction.class);
+    int[] neurons = new int[readCount(in, "layers")];
+    for (int i = 0; i < neurons.length; i++) {
+      neurons[i] = in.readInt();
+    }
+    return new MultiLayerPerceptron(activationFunction, neurons, readDoubles(in));
+  }
+
+  private static void writeDoubles(double[] values, DataOutput out) throws IOException {
+    out.writeInt(values.length);
+    for (double value : values) {
+      out.writeDouble(value);
+    }
+  }
+
+  private static double[] readDoubles(DataInput in) throws IOException {
+    double[] values = new double[readCount(in, "values")];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readDouble();
+    }
+    return values;
+  }
+
+  private static void writeJava(Object o, DataOutput out) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(o);
+    }
+    out.writeInt(baos.size());
+    out.write(baos.toByteArray());
+  }
+
+  private static Object readJava(DataInput in) throws IOException {
+    byte[] bytes = new byte[readCount(in, "bytes")];
+    in.readFully(bytes);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return ois.readObject();
+    } catch (ClassNotFoundException ex) {
+      throw new IOException(String.format("Cannot deserialize due to %s", ex), ex);
+    }
+  }
+
+  private static int readCount(DataInput in, String what) throws IOException {
+    int count = in.readInt();
+    if (count < 0) {
+      throw new IOException(String.format("Negative number of %s: %d", what, count));
+    }
+    return count;
+  }
+
+  private static <E extends Enum<E>> E readEnum(int ordinal, Class<E> enumClass) throws IOException {
+    E[] values = enumClass.getEnumConstants();
+    if ((ordinal < 0) || (ordinal >= values.length)) {
+      throw new IOException(String.format("Invalid %s ordinal %d", enumClass.getSimpleName(), ordinal));
+    }
+    return values[ordinal];
+  }
+
+  private static <E extends Enum<E>> int enumSetToBits(Set<E> set) {
+    int bits = 0;
+    for (E e : set) {
+      bits = bits | (1 << e.ordinal());
+    }
+    return bits;
+  }
+
+  private static <E extends Enum<E>> EnumSet<E> bitsToEnumSet(int bits, Class<E> enumClass) {
+    EnumSet<E> set = EnumSet.noneOf(enumClass);
+    for (E e : enumClass.getEnumConstants()) {
+      if ((bits & (1 << e.ordinal())) != 0) {
+        set.add(e);
+      }
+    }
+    return set;
+  }
+
+}
@@ -20,25 +20,105 @@ import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
 import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Poly;
 import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
 import org.dyn4j.dynamics.World;
 import org.dyn4j.geometry.MassType;
 import org.dyn4j.geometry.Polygon;
 import org.dyn4j.geometry.Vector2;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Random;
 
 /**
+ * A ground made of a single static body with one fixture for each segment of the profile. Fixtures are indexed by x:
+ * with {@link #setWindow(double, double)}, only the segments around a given range are kept in the body, hence the cost
+ * of collision detection does not depend on the length of the profile. The profile may also be unbounded, with
+ * segments generated only when they enter the window.
+ *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class Ground implements WorldObject {
 
   private static final double MIN_Y_THICKNESS = 10d;
 
-  private final List<Body> bodies;
-  private final List<Vector2> polygon;
-  
+  //the points of the profile, in the coordinates of the ground, i.e., with the first x and the min y at 0
+  private interface Profile {
+    int size();
+
+    double x(int i);
+
+    double y(int i);
+  }
+
+  private static class ArrayProfile implements Profile {
+    private final double[] xs;
+    private final double[] ys;
+
+    private ArrayProfile(double[] xs, double[] ys) {
+      this.xs = xs;
+      this.ys = ys;
+    }
+
+    @Override
+    public int size() {
+      return xs.length;
+    }
+
+    @Override
+    public double x(int i) {
+      return xs[i];
+    }
+
+    @Override
+    public double y(int i) {
+      return ys[i];
+    }
+  }
+
+  private static class SeededProfile implements Profile {
+    private final double segmentLength;
+    private final double peak;
+    private final double borderHeight;
+    private final long seed;
+
+    private SeededProfile(double segmentLength, double peak, double borderHeight, long seed) {
+      this.segmentLength = segmentLength;
+      this.peak = peak;
+      this.borderHeight = borderHeight;
+      this.seed = seed;
+    }
+
+    @Override
+    public int size() {
+      return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public double x(int i) {
+      return (i == 0) ? 0d : (1d + (double) (i - 1) * segmentLength);
+    }
+
+    @Override
+    public double y(int i) {
+      //each point has its own generator, hence it is the same regardless of when (and how often) it is generated
+      return (i == 0) ? borderHeight : (new Random(seed ^ ((long) i * 0x9E3779B97F4A7C15L)).nextDouble() * peak);
+    }
+  }
+
+  private final Profile profile;
+  private final List<BodyFixture> segments;
+  private final Body body;
+  private final Deque<BodyFixture> windowSegments;
+  private ImmutableObject immutableGround;
+  private World world;
+  private int firstSegment;
+  private int lastSegment;
+
   public Ground(double[] xs, double[] ys) {
     if (xs.length != ys.length) {
       throw new IllegalArgumentException("xs[] and ys[] must have the same length");
@@ -51,50 +131,221 @@ public class Ground implements WorldObject {
     if (!Arrays.equals(xs, sortedXs)) {
       throw new IllegalArgumentException("x coordinates must be sorted");
     }
-    //init collections
-    bodies = new ArrayList<>(xs.length-1);
-    polygon = new ArrayList<>(xs.length+2);
-    //find min y
+    //find min y and build profile
     double minY = Arrays.stream(ys).min().orElse(0d);
-    polygon.add(new Vector2(0,-MIN_Y_THICKNESS));
-    //build bodies and polygon
-    for (int i = 1; i<xs.length; i++) {
-      Polygon bodyPoly = new Polygon(              
-              new Vector2(0, ys[i-1]),
-              new Vector2(0, minY-MIN_Y_THICKNESS),
-              new Vector2(xs[i]-xs[i-1], minY-MIN_Y_THICKNESS),
-              new Vector2(xs[i]-xs[i-1], ys[i])     
-      );
-      Body body = new Body(1);
-      body.addFixture(bodyPoly);
-      body.setMass(MassType.INFINITE);
-      body.translate(xs[i-1], 0);
-      body.translate(-xs[0], -minY);
-      bodies.add(body);
-      polygon.add(new Vector2(xs[i-1]-xs[0], ys[i-1]-minY));
-    }
-    polygon.add(new Vector2(xs[xs.length-1]-xs[0], ys[xs.length-1]-minY));
-    polygon.add(new Vector2(xs[xs.length-1]-xs[0], -MIN_Y_THICKNESS));
+    double[] profileXs = new double[xs.length];
+    double[] profileYs = new double[ys.length];
+    for (int i = 0; i<xs.length; i++) {
+      profileXs[i] = xs[i]-xs[0];
+      profileYs[i] = ys[i]-minY;
+    }
+    profile = new ArrayProfile(profileXs, profileYs);
+    //build segments
+    List<BodyFixture> fixtures = new ArrayList<>(xs.length-1);
+    for (int i = 0; i<xs.length-1; i++) {
+      fixtures.add(segment(profile, i));
+    }
+    segments = Collections.unmodifiableList(fixtures);
+    body = body(segments);
+    windowSegments = new ArrayDeque<>(segments);
+    firstSegment = 0;
+    lastSegment = segments.size();
+    //the ground does not move: the same immutable object is shared by all snapshots
+    immutableGround = new ImmutableObject(this, poly(profile, 0, segments.size()));
+  }
+
+  /**
+   * Builds a ground with an unbounded profile, like the one of a {@code uneven} terrain which never ends: a vertical
+   * border of height {@code borderHeight} at x=0, then points every {@code segmentLength}, starting from x=1, with y
+   * uniformly distributed in {@code [0, peak]}. Each point is determined by {@code seed} and its index only. Segments
+   * are generated when they enter the window and dropped when they leave it: the ground has no segments until {@link
+   * #setWindow(double, double)} is invoked.
+   */
+  public Ground(double segmentLength, double peak, double borderHeight, long seed) {
+    if (segmentLength <= 0d) {
+      throw new IllegalArgumentException("Segment length must be positive");
+    }
+    profile = new SeededProfile(segmentLength, peak, borderHeight, seed);
+    segments = null;
+    body = body(Collections.emptyList());
+    windowSegments = new ArrayDeque<>();
+    firstSegment = 0;
+    lastSegment = 0;
+    immutableGround = null;
+  }
+
+  /**
+   * Builds a ground with the same profile as {@code ground}: fixtures and geometry, which never change, are shared
+   * with {@code ground} and only the (cheap) body is new, hence the two grounds can be in different worlds. The new
+   * ground has all the segments, or none if the profile is unbounded.
+   */
+  public Ground(Ground ground) {
+    profile = ground.profile;
+    segments = ground.segments;
+    if (segments != null) {
+      body = body(segments);
+      windowSegments = new ArrayDeque<>(segments);
+      lastSegment = segments.size();
+      immutableGround = new ImmutableObject(this, ground.immutableGround.getShape());
+    } else {
+      body = body(Collections.emptyList());
+      windowSegments = new ArrayDeque<>();
+      lastSegment = 0;
+      immutableGround = null;
+    }
+    firstSegment = 0;
+  }
+
+  private static Body body(List<BodyFixture> segments) {
+    Body body = new Body(Math.max(segments.size(), 1));
+    for (BodyFixture segment : segments) {
+      body.addFixture(segment);
+    }
+    body.setMass(MassType.INFINITE);
+    return body;
+  }
+
+  private static BodyFixture segment(Profile profile, int i) {
+    return new BodyFixture(new Polygon(
+            new Vector2(profile.x(i), profile.y(i)),
+            new Vector2(profile.x(i), -MIN_Y_THICKNESS),
+            new Vector2(profile.x(i+1), -MIN_Y_THICKNESS),
+            new Vector2(profile.x(i+1), profile.y(i+1))
+    ));
+  }
+
+  private static Poly poly(Profile profile, int first, int last) {
+    Point2[] vertices = new Point2[last-first+3];
+    vertices[0] = Point2.build(profile.x(first), -MIN_Y_THICKNESS);
+    for (int i = first; i<=last; i++) {
+      vertices[i-first+1] = Point2.build(profile.x(i), profile.y(i));
+    }
+    vertices[vertices.length-1] = Point2.build(profile.x(last), -MIN_Y_THICKNESS);
+    return Poly.build(vertices);
+  }
+
+  /**
+   * Returns the first {@code n} points of the profile, as {@code {xs, ys}}, in the coordinates of the ground, i.e.,
+   * with the first x and the min y at 0.
+   */
+  public double[][] getProfile(int n) {
+    double[][] points = new double[][]{new double[n], new double[n]};
+    for (int i = 0; i < n; i++) {
+      points[0][i] = profile.x(i);
+      points[1][i] = profile.y(i);
+    }
+    return points;
+  }
+
+  /**
+   * Returns the highest y of the profile in the {@code [minX, maxX]} range, in the coordinates of the ground.
+   */
+  public double getMaxY(double minX, double maxX) {
+    int last = profile.size() - 1;
+    int i = Math.max(0, Math.min(rank(profile, 0, last + 1, minX, true) - 1, last - 1));
+    double maxY = interpolate(profile, i, minX);
+    for (i = i + 1; (i < last) && (profile.x(i) < maxX); i++) {
+      maxY = Math.max(maxY, profile.y(i));
+    }
+    return Math.max(maxY, interpolate(profile, i - 1, maxX));
+  }
+
+  //y of the i-th segment at x, which is clipped to the segment
+  private static double interpolate(Profile profile, int i, double x) {
+    double x1 = profile.x(i);
+    double x2 = profile.x(i + 1);
+    if (x2 <= x1) {
+      return Math.max(profile.y(i), profile.y(i + 1));
+    }
+    x = Math.max(x1, Math.min(x2, x));
+    return profile.y(i) + (profile.y(i + 1) - profile.y(i)) * (x - x1) / (x2 - x1);
+  }
+
+  /**
+   * Keeps in the body of this ground only the segments which overlap the {@code [minX, maxX]} range, in the
+   * coordinates of the ground. Segments are kept in order of x, regardless of the previous windows, so that the state
+   * of the ground only depends on its last window.
+   */
+  public void setWindow(double minX, double maxX) {
+    int n = profile.size()-1;
+    int first = Math.min(rank(profile, 1, n + 1, minX, false), n);
+    int last = Math.max(rank(profile, 0, n, maxX, true), first);
+    if ((first == firstSegment) && (last == lastSegment)) {
+      return;
+    }
+    if (first < firstSegment) {
+      //fixtures can only be appended to the body: rebuild the window
+      while (!windowSegments.isEmpty()) {
+        detach(windowSegments.pollFirst());
+      }
+      for (int i = first; i < last; i++) {
+        attach(i);
+      }
+    } else {
+      for (int i = firstSegment; i < Math.min(first, lastSegment); i++) {
+        detach(windowSegments.pollFirst());
+      }
+      for (int i = lastSegment - 1; i >= Math.max(last, first); i--) {
+        detach(windowSegments.pollLast());
+      }
+      for (int i = Math.max(first, lastSegment); i < last; i++) {
+        attach(i);
+      }
+    }
+    firstSegment = first;
+    lastSegment = last;
+    if (segments == null) {
+      immutableGround = null;
+    }
+  }
+
+  //number of the points of profile in [from, to) whose x is lower than (or equal to, if inclusive) x
+  private static int rank(Profile profile, int from, int to, double x, boolean inclusive) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      double midX = profile.x(mid);
+      if ((midX < x) || (inclusive && (midX == x))) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low - from;
+  }
+
+  private void attach(int i) {
+    BodyFixture segment = (segments != null) ? segments.get(i) : segment(profile, i);
+    //the broad-phase of the world picks up the new fixture at the next step
+    body.addFixture(segment);
+    windowSegments.addLast(segment);
+  }
+
+  private void detach(BodyFixture segment) {
+    body.removeFixture(segment);
+    if (world != null) {
+      world.getBroadphaseDetector().remove(body, segment);
+    }
   }
 
   @Override
   public ImmutableObject immutable() {
-    Point2[] vertices = new Point2[polygon.size()];
-    for (int i = 0; i<vertices.length; i++) {
-      vertices[i] = Point2.build(polygon.get(i));
+    if (immutableGround == null) {
+      //unbounded ground: only the window is shown
+      immutableGround = new ImmutableObject(this, poly(profile, firstSegment, lastSegment));
     }
-    return new ImmutableObject(this, Poly.build(vertices));
+    return immutableGround;
   }
 
   @Override
   public void addTo(World world) {
-    for (Body body : bodies) {
-      world.addBody(body);
-    }
+    this.world = world;
+    world.addBody(body);
   }
 
   public List<Body> getBodies() {
-    return bodies;
+    return Collections.singletonList(body);
   }
 
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.objects;
+
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.dynamics.joint.RopeJoint;
+import org.dyn4j.dynamics.joint.WeldJoint;
+import org.dyn4j.geometry.Vector3;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clears the impulses that dyn4j joints accumulate for warm starting the solver of the next step.
+ * <p>
+ * dyn4j does not expose these impulses, which are kept in private fields: a joint which is reused in a new
+ * simulation would hence start with the impulses of the end of the previous one, making the new simulation differ
+ * from one with brand new joints. The fields are accessed once through method handles; if they cannot be accessed
+ * (e.g., with a different version of dyn4j), {@link #isSupported()} returns {@code false} and joints should not be
+ * reused.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+final class JointImpulses {
+
+  private static final Logger L = Logger.getLogger(JointImpulses.class.getName());
+
+  private static final MethodHandle DISTANCE_IMPULSE_SETTER;
+  private static final MethodHandle ROPE_IMPULSE_SETTER;
+  private static final MethodHandle WELD_IMPULSE_GETTER;
+
+  static {
+    MethodHandle distanceImpulseSetter = null;
+    MethodHandle ropeImpulseSetter = null;
+    MethodHandle weldImpulseGetter = null;
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      distanceImpulseSetter = lookup.unreflectSetter(accessibleField(DistanceJoint.class, "impulse"));
+      ropeImpulseSetter = lookup.unreflectSetter(accessibleField(RopeJoint.class, "impulse"));
+      weldImpulseGetter = lookup.unreflectGetter(accessibleField(WeldJoint.class, "impulse"));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      L.log(Level.WARNING, "Cannot access impulses of joints: joints cannot be reused", e);
+      distanceImpulseSetter = null;
+      ropeImpulseSetter = null;
+      weldImpulseGetter = null;
+    }
+    DISTANCE_IMPULSE_SETTER = distanceImpulseSetter;
+    ROPE_IMPULSE_SETTER = ropeImpulseSetter;
+    WELD_IMPULSE_GETTER = weldImpulseGetter;
+  }
+
+  private JointImpulses() {
+  }
+
+  private static Field accessibleField(Class<?> type, String name) throws NoSuchFieldException {
+    Field field = type.getDeclaredField(name);
+    field.setAccessible(true);
+    return field;
+  }
+
+  static boolean isSupported() {
+    return DISTANCE_IMPULSE_SETTER != null;
+  }
+
+  static void clear(Joint joint) {
+    try {
+      if (joint instanceof DistanceJoint) {
+        DISTANCE_IMPULSE_SETTER.invoke((DistanceJoint) joint, 0d);
+      } else if (joint instanceof RopeJoint) {
+        ROPE_IMPULSE_SETTER.invoke((RopeJoint) joint, 0d);
+      } else if (joint instanceof WeldJoint) {
+        ((Vector3) WELD_IMPULSE_GETTER.invoke((WeldJoint) joint)).zero();
+      } else {
+        throw new IllegalArgumentException(String.format("Cannot clear impulses of %s", joint.getClass().getSimpleName()));
+      }
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException(String.format("Cannot clear impulses of %s", joint.getClass().getSimpleName()), t);
+    }
+  }
+
+}
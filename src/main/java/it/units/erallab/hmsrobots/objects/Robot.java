@@ -18,9 +18,11 @@ package it.units.erallab.hmsrobots.objects;
 
 import it.units.erallab.hmsrobots.controllers.Controller;
 import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
-import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableRobot;
 import it.units.erallab.hmsrobots.sensors.Sensor;
+import it.units.erallab.hmsrobots.util.Configuration;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.StepProfiler;
 import org.apache.commons.lang3.tuple.Pair;
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.World;
@@ -28,8 +30,11 @@ import org.dyn4j.dynamics.joint.Joint;
 import org.dyn4j.dynamics.joint.WeldJoint;
 import org.dyn4j.geometry.Vector2;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -39,9 +44,11 @@ import java.util.Objects;
 public class Robot implements WorldObject {
 
   private final List<Joint> joints;
-  private final Controller controller;
   private final Grid<Voxel> voxels;
-  private final Description description;
+  private Controller controller;
+  private Description description;
+  private ImmutableRobot.Topology topology;
+  private byte[] voxelsEncoding;
 
   public static class Description implements Serializable {
 
@@ -118,6 +125,60 @@ public class Robot implements WorldObject {
         }
       }
     }
+    for (Voxel voxel : voxels.values()) {
+      if (voxel != null) {
+        voxel.saveInitialState();
+      }
+    }
+  }
+
+  /**
+   * Tells if this robot can be {@link #reset(Description)} to a robot built with {@code description}, i.e., if the
+   * two have the same structure and voxel descriptions with the same values, including sensors (see {@link
+   * DescriptionCodec#encodeVoxels(Grid)}), and the joints of this robot can be reset. Voxel descriptions are compared
+   * by value, since they are usually different instances, e.g., when decoded: they should not be changed after the
+   * robot is built.
+   */
+  public boolean isResettableTo(Description description) {
+    if (!JointImpulses.isSupported()) {
+      return false;
+    }
+    if (this.description.getVoxelDescriptionGrid() == description.getVoxelDescriptionGrid()) {
+      return true;
+    }
+    try {
+      if (voxelsEncoding == null) {
+        voxelsEncoding = DescriptionCodec.encodeVoxels(this.description.getVoxelDescriptionGrid());
+      }
+      return Arrays.equals(voxelsEncoding, DescriptionCodec.encodeVoxels(description.getVoxelDescriptionGrid()));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Brings this robot back to the state it had when built, as if it were built at the same position with {@code
+   * description}, whose controller replaces the current one. This robot should not be in a world when reset. Meant
+   * for reusing the bodies and joints of a robot across simulations of robots which differ only in the controller.
+   *
+   * @throws IllegalArgumentException if this robot is not resettable to {@code description}
+   */
+  public void reset(Description description) {
+    if (!isResettableTo(description)) {
+      throw new IllegalArgumentException("Cannot reset robot to a different structure");
+    }
+    for (Grid.Entry<Voxel> entry : voxels) {
+      if (entry.getValue() != null) {
+        entry.getValue().reset(description.getVoxelDescriptionGrid().get(entry.getX(), entry.getY()));
+      }
+    }
+    //the topology refers to the sensors, which are taken from the new description
+    topology = null;
+    for (Joint joint : joints) {
+      JointImpulses.clear(joint);
+    }
+    this.description = description;
+    controller = description.getController();
   }
 
   private static Joint join(Body body1, Body body2) {
@@ -129,18 +190,39 @@ public class Robot implements WorldObject {
   }
 
   @Override
-  public ImmutableObject immutable() {
-    List<ImmutableObject> children = new ArrayList<>();
+  public ImmutableRobot immutable() {
+    //build topology once, since it does not change over time
+    if (topology == null) {
+      List<ImmutableRobot.VoxelTopology> voxelTopologies = new ArrayList<>();
+      List<boolean[]> outerSides = new ArrayList<>();
+      for (Grid.Entry<Voxel> entry : voxels) {
+        if (entry.getValue() != null) {
+          voxelTopologies.add(entry.getValue().topology());
+          //sides are N, E, S, W, since vertexes are NW, NE, SE, SW
+          outerSides.add(new boolean[]{
+              voxels.get(entry.getX(), entry.getY() + 1) == null,
+              voxels.get(entry.getX() + 1, entry.getY()) == null,
+              voxels.get(entry.getX(), entry.getY() - 1) == null,
+              voxels.get(entry.getX() - 1, entry.getY()) == null
+          });
+        }
+      }
+      topology = new ImmutableRobot.Topology(voxelTopologies, outerSides);
+    }
+    double[] coordinates = new double[topology.getNOfCoordinates()];
+    double[][] readings = new double[topology.getNOfSensors()][];
+    List<Configuration<? extends Sensor>> configurations = new ArrayList<>(Collections.nCopies(topology.getNOfSensors(), null));
+    Vector2 v = new Vector2();
+    int c = 0;
     for (Voxel voxel : voxels.values()) {
       if (voxel != null) {
-        children.add(voxel.immutable());
+        ImmutableRobot.VoxelTopology voxelTopology = topology.getVoxel(c);
+        voxel.fillCoordinates(coordinates, voxelTopology.getOffset(), v);
+        voxel.fillReadings(readings, configurations, voxelTopology.getSensorOffset());
+        c = c + 1;
       }
     }
-    return new ImmutableObject(
-        this,
-        null,
-        children
-    );
+    return new ImmutableRobot(this, topology, coordinates, readings, configurations);
   }
 
   @Override
@@ -156,16 +238,24 @@ public class Robot implements WorldObject {
   }
 
   public Grid<Double> act(final double t) {
+    return act(t, StepProfiler.DISABLED);
+  }
+
+  public Grid<Double> act(final double t, StepProfiler profiler) {
+    long nanos = profiler.start();
     //sense
     Grid<List<Pair<Sensor, double[]>>> sensorsValues = Grid.create(voxels, v -> v == null ? null : v.sense(t));
+    nanos = profiler.stop(StepProfiler.Phase.SENSING, nanos);
     //control
     Grid<Double> forces = controller.control(t, sensorsValues);
+    nanos = profiler.stop(StepProfiler.Phase.CONTROL, nanos);
     //apply
     for (Grid.Entry<Voxel> voxelEntry : voxels) {
       if (voxelEntry.getValue() != null) {
         voxelEntry.getValue().applyForce(forces.get(voxelEntry.getX(), voxelEntry.getY()));
       }
     }
+    profiler.stop(StepProfiler.Phase.FORCES, nanos);
     return forces;
   }
 
@@ -201,9 +291,7 @@ public class Robot implements WorldObject {
   }
 
   public BoundingBox boundingBox() {
-    return immutable().getChildren().stream()
-        .map(o -> o.getShape().boundingBox())
-        .reduce((b1, b2) -> BoundingBox.largest(b1, b2)).get();
+    return immutable().getBoundingBox();
   }
 
 }
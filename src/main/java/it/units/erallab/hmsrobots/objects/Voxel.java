@@ -20,6 +20,7 @@ import it.units.erallab.hmsrobots.objects.immutable.*;
 import it.units.erallab.hmsrobots.sensors.Sensor;
 import it.units.erallab.hmsrobots.util.Configurable;
 import it.units.erallab.hmsrobots.util.ConfigurableField;
+import it.units.erallab.hmsrobots.util.Configuration;
 import org.apache.commons.lang3.tuple.Pair;
 import org.dyn4j.collision.Filter;
 import org.dyn4j.dynamics.Body;
@@ -36,6 +37,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -116,48 +120,211 @@ public class Voxel implements WorldObject {
 
   }
 
+  /**
+   * The part of a voxel which depends only on its {@link Description}: the shape of the vertex bodies, their
+   * position and the anchors of the springs with respect to the center of the voxel, and the spring ranges. Bodies
+   * and joints of a new voxel are built from the template of its description, which is computed once and shared
+   * among all voxels with the same {@link TemplateKey}; the shape is shared too, since dyn4j only reads it.
+   */
+  private static class Template {
+
+    private final double massSideLength;
+    private final double density;
+    private final Rectangle massShape;
+    private final double[][] bodyCenters;
+    private final int[][] springBodies;
+    private final double[][] springAnchors;
+    private final SpringRange[] springRanges;
+
+    private Template(TemplateKey key) {
+      double sideLength = key.sideLength;
+      //compute densities
+      massSideLength = sideLength * key.massSideLengthRatio;
+      density = key.mass * massSideLength / massSideLength / 4;
+      massShape = new Rectangle(massSideLength, massSideLength);
+      //vertex bodies are NW, NE, SE, SW
+      double c = sideLength / 2d - massSideLength / 2d;
+      bodyCenters = new double[][]{{-c, +c}, {+c, +c}, {+c, -c}, {-c, -c}};
+      //compute spring ranges
+      double minSideLength = Math.sqrt(sideLength * sideLength * (1d - key.areaRatioOffset));
+      double maxSideLength = Math.sqrt(sideLength * sideLength * (1d + key.areaRatioOffset));
+      SpringRange sideParallelRange = new SpringRange(minSideLength - 2d * massSideLength, sideLength - 2d * massSideLength, maxSideLength - 2d * massSideLength);
+      SpringRange sideCrossRange = new SpringRange(Math.sqrt(massSideLength * massSideLength + sideParallelRange.min * sideParallelRange.min), Math.sqrt(massSideLength * massSideLength + sideParallelRange.rest * sideParallelRange.rest), Math.sqrt(massSideLength * massSideLength + sideParallelRange.max * sideParallelRange.max));
+      SpringRange centralCrossRange = new SpringRange((minSideLength - massSideLength) * Math.sqrt(2d), (sideLength - massSideLength) * Math.sqrt(2d), (maxSideLength - massSideLength) * Math.sqrt(2d));
+      //springs, as body indexes and anchor displacements (in half mass sides) from the body centers
+      List<int[]> springs = new ArrayList<>();
+      List<SpringRange> ranges = new ArrayList<>();
+      if (key.springScaffoldings.contains(SpringScaffolding.SIDE_INTERNAL)) {
+        springs.add(new int[]{0, 1, +1, -1, -1, -1});
+        springs.add(new int[]{1, 2, -1, -1, -1, +1});
+        springs.add(new int[]{2, 3, -1, +1, +1, +1});
+        springs.add(new int[]{3, 0, +1, +1, +1, -1});
+        ranges.addAll(Collections.nCopies(4, sideParallelRange));
+      }
+      if (key.springScaffoldings.contains(SpringScaffolding.SIDE_EXTERNAL)) {
+        springs.add(new int[]{0, 1, +1, +1, -1, +1});
+        springs.add(new int[]{1, 2, +1, -1, +1, +1});
+        springs.add(new int[]{2, 3, -1, -1, +1, -1});
+        springs.add(new int[]{3, 0, -1, +1, -1, -1});
+        ranges.addAll(Collections.nCopies(4, sideParallelRange));
+      }
+      if (key.springScaffoldings.contains(SpringScaffolding.SIDE_CROSS)) {
+        springs.add(new int[]{0, 1, +1, +1, -1, -1});
+        springs.add(new int[]{0, 1, +1, -1, -1, +1});
+        springs.add(new int[]{1, 2, +1, -1, -1, +1});
+        springs.add(new int[]{1, 2, -1, -1, +1, +1});
+        springs.add(new int[]{2, 3, -1, +1, +1, -1});
+        springs.add(new int[]{2, 3, -1, -1, +1, +1});
+        springs.add(new int[]{3, 0, -1, +1, +1, -1});
+        springs.add(new int[]{3, 0, +1, +1, -1, -1});
+        ranges.addAll(Collections.nCopies(8, sideCrossRange));
+      }
+      if (key.springScaffoldings.contains(SpringScaffolding.CENTRAL_CROSS)) {
+        springs.add(new int[]{0, 2, 0, 0, 0, 0});
+        springs.add(new int[]{1, 3, 0, 0, 0, 0});
+        ranges.addAll(Collections.nCopies(2, centralCrossRange));
+      }
+      springBodies = new int[springs.size()][];
+      springAnchors = new double[springs.size()][];
+      for (int i = 0; i < springs.size(); i++) {
+        int[] spring = springs.get(i);
+        springBodies[i] = new int[]{spring[0], spring[1]};
+        springAnchors[i] = new double[]{
+            bodyCenters[spring[0]][0] + spring[2] * massSideLength / 2d,
+            bodyCenters[spring[0]][1] + spring[3] * massSideLength / 2d,
+            bodyCenters[spring[1]][0] + spring[4] * massSideLength / 2d,
+            bodyCenters[spring[1]][1] + spring[5] * massSideLength / 2d
+        };
+      }
+      springRanges = ranges.toArray(new SpringRange[0]);
+    }
+  }
+
+  /**
+   * The fields of a {@link Description} which a {@link Template} depends on, copied, so that the key of a cached
+   * template does not change when the description is configured.
+   */
+  private static class TemplateKey {
+
+    private final double sideLength;
+    private final double massSideLengthRatio;
+    private final double mass;
+    private final double areaRatioOffset;
+    private final Set<SpringScaffolding> springScaffoldings;
+
+    private TemplateKey(Description description) {
+      sideLength = description.sideLength;
+      massSideLengthRatio = description.massSideLengthRatio;
+      mass = description.mass;
+      areaRatioOffset = description.areaRatioOffset;
+      EnumSet<SpringScaffolding> scaffoldings = EnumSet.noneOf(SpringScaffolding.class);
+      scaffoldings.addAll(description.springScaffoldings);
+      springScaffoldings = Collections.unmodifiableSet(scaffoldings);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = 7;
+      hash = 83 * hash + Double.hashCode(this.sideLength);
+      hash = 83 * hash + Double.hashCode(this.massSideLengthRatio);
+      hash = 83 * hash + Double.hashCode(this.mass);
+      hash = 83 * hash + Double.hashCode(this.areaRatioOffset);
+      hash = 83 * hash + this.springScaffoldings.hashCode();
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      final TemplateKey other = (TemplateKey) obj;
+      if (Double.compare(this.sideLength, other.sideLength) != 0) {
+        return false;
+      }
+      if (Double.compare(this.massSideLengthRatio, other.massSideLengthRatio) != 0) {
+        return false;
+      }
+      if (Double.compare(this.mass, other.mass) != 0) {
+        return false;
+      }
+      if (Double.compare(this.areaRatioOffset, other.areaRatioOffset) != 0) {
+        return false;
+      }
+      return this.springScaffoldings.equals(other.springScaffoldings);
+    }
+  }
+
+  //few distinct geometries are used in practice, hence templates are never evicted
+  private final static Map<TemplateKey, Template> TEMPLATES = new ConcurrentHashMap<>();
+
   public static class Description implements Configurable<Description> {
     @ConfigurableField
-    private final double sideLength = 3d;
+    private double sideLength = 3d;
     @ConfigurableField
-    private final double massSideLengthRatio = .30d;
+    private double massSideLengthRatio = .30d;
     @ConfigurableField
-    private final double springF = 8d;
+    private double springF = 8d;
     @ConfigurableField
-    private final double springD = 0.3d;
+    private double springD = 0.3d;
     @ConfigurableField
-    private final double massLinearDamping = 1d;
+    private double massLinearDamping = 1d;
     @ConfigurableField
-    private final double massAngularDamping = 1d;
+    private double massAngularDamping = 1d;
     @ConfigurableField
-    private final double maxForce = 1000d; //not used in forceMethod=DISTANCE
+    private double maxForce = 1000d; //not used in forceMethod=DISTANCE
     @ConfigurableField
-    private final double areaRatioOffset = 0.2d; //not used in forceMethod=FORCE
+    private double areaRatioOffset = 0.2d; //not used in forceMethod=FORCE
     @ConfigurableField
-    private final double friction = 100d;
+    private double friction = 100d;
     @ConfigurableField
-    private final double restitution = 0.1d;
+    private double restitution = 0.1d;
     @ConfigurableField
-    private final double mass = 1d;
+    private double mass = 1d;
     @ConfigurableField
-    private final boolean limitContractionFlag = true;
+    private boolean limitContractionFlag = true;
     @ConfigurableField
-    private final boolean massCollisionFlag = false;
+    private boolean massCollisionFlag = false;
     @ConfigurableField
-    private final ForceMethod forceMethod = ForceMethod.DISTANCE;
+    private ForceMethod forceMethod = ForceMethod.DISTANCE;
     @ConfigurableField
-    private final EnumSet<SpringScaffolding> springScaffoldings = EnumSet.of(
+    private EnumSet<SpringScaffolding> springScaffoldings = EnumSet.of(
         SpringScaffolding.SIDE_EXTERNAL,
         SpringScaffolding.SIDE_INTERNAL,
         SpringScaffolding.SIDE_CROSS,
         SpringScaffolding.CENTRAL_CROSS
     );
     @ConfigurableField
-    private final List<Sensor> sensors = new ArrayList<>();
+    private List<Sensor> sensors = new ArrayList<>();
 
     private Description() {
     }
 
+    Description(double sideLength, double massSideLengthRatio, double springF, double springD, double massLinearDamping, double massAngularDamping, double maxForce, double areaRatioOffset, double friction, double restitution, double mass, boolean limitContractionFlag, boolean massCollisionFlag, ForceMethod forceMethod, EnumSet<SpringScaffolding> springScaffoldings, List<Sensor> sensors) {
+      this.sideLength = sideLength;
+      this.massSideLengthRatio = massSideLengthRatio;
+      this.springF = springF;
+      this.springD = springD;
+      this.massLinearDamping = massLinearDamping;
+      this.massAngularDamping = massAngularDamping;
+      this.maxForce = maxForce;
+      this.areaRatioOffset = areaRatioOffset;
+      this.friction = friction;
+      this.restitution = restitution;
+      this.mass = mass;
+      this.limitContractionFlag = limitContractionFlag;
+      this.massCollisionFlag = massCollisionFlag;
+      this.forceMethod = forceMethod;
+      this.springScaffoldings = springScaffoldings;
+      this.sensors = sensors;
+    }
+
     public double getSideLength() {
       return sideLength;
     }
@@ -235,11 +402,14 @@ public class Voxel implements WorldObject {
   private final double maxForce;
   private final double massSideLengthRatio;
   private final Robot robot;
-  private final List<Sensor> sensors;
+  private List<Sensor> sensors;
+  private List<Configuration<? extends Sensor>> sensorConfigurations = Collections.emptyList();
+  private long sensorConfigurationsVersion = -1;
 
   private double lastAppliedForce = 0d;
   private List<Pair<Sensor, double[]>> lastSensorReadings = Collections.EMPTY_LIST;
   private World world;
+  private Transform[] initialTransforms;
 
   public static Voxel build(Robot robot, Description description) {
     return new Voxel(robot, description);
@@ -256,163 +426,54 @@ public class Voxel implements WorldObject {
     this.maxForce = description.maxForce;
     this.massSideLengthRatio = description.massSideLengthRatio;
     this.sensors = new ArrayList<>(description.sensors);
-    //compute densities
-    double massSideLength = description.sideLength * description.massSideLengthRatio;
-    double density = description.mass * massSideLength / massSideLength / 4;
+    Template template = template(description);
     //build bodies
     vertexBodies = new Body[4];
-    vertexBodies[0] = new Body(1); //NW
-    vertexBodies[1] = new Body(1); //NE
-    vertexBodies[2] = new Body(1); //SE
-    vertexBodies[3] = new Body(1); //SW
-    for (Body vertexBody : vertexBodies) {
-      vertexBody.setUserData(robot);
-    }
-    vertexBodies[0].addFixture(new Rectangle(massSideLength, massSideLength), density, description.friction, description.restitution);
-    vertexBodies[1].addFixture(new Rectangle(massSideLength, massSideLength), density, description.friction, description.restitution);
-    vertexBodies[2].addFixture(new Rectangle(massSideLength, massSideLength), density, description.friction, description.restitution);
-    vertexBodies[3].addFixture(new Rectangle(massSideLength, massSideLength), density, description.friction, description.restitution);
-    vertexBodies[0].translate(-(sideLength / 2d - massSideLength / 2d), +(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[1].translate(+(sideLength / 2d - massSideLength / 2d), +(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[2].translate(+(sideLength / 2d - massSideLength / 2d), -(sideLength / 2d - massSideLength / 2d));
-    vertexBodies[3].translate(-(sideLength / 2d - massSideLength / 2d), -(sideLength / 2d - massSideLength / 2d));
     ParentFilter filter = new ParentFilter(robot);
-    for (Body body : vertexBodies) {
-      body.setMass(MassType.NORMAL);
-      body.setLinearDamping(description.massLinearDamping);
-      body.setAngularDamping(description.massAngularDamping);
+    for (int i = 0; i < vertexBodies.length; i++) {
+      vertexBodies[i] = new Body(1);
+      vertexBodies[i].setUserData(robot);
+      vertexBodies[i].addFixture(template.massShape, template.density, description.friction, description.restitution);
+      vertexBodies[i].translate(template.bodyCenters[i][0], template.bodyCenters[i][1]);
+      vertexBodies[i].setMass(MassType.NORMAL);
+      vertexBodies[i].setLinearDamping(description.massLinearDamping);
+      vertexBodies[i].setAngularDamping(description.massAngularDamping);
       if (description.massCollisionFlag) {
-        body.getFixture(0).setFilter(filter);
+        vertexBodies[i].getFixture(0).setFilter(filter);
       }
     }
     //build rope joints
-    List<RopeJoint> localRopeJoints = new ArrayList<>();
     if (description.limitContractionFlag) {
-      localRopeJoints.add(new RopeJoint(vertexBodies[0], vertexBodies[1], vertexBodies[0].getWorldCenter(), vertexBodies[1].getWorldCenter()));
-      localRopeJoints.add(new RopeJoint(vertexBodies[1], vertexBodies[2], vertexBodies[1].getWorldCenter(), vertexBodies[2].getWorldCenter()));
-      localRopeJoints.add(new RopeJoint(vertexBodies[2], vertexBodies[3], vertexBodies[2].getWorldCenter(), vertexBodies[3].getWorldCenter()));
-      localRopeJoints.add(new RopeJoint(vertexBodies[3], vertexBodies[0], vertexBodies[3].getWorldCenter(), vertexBodies[0].getWorldCenter()));
-      for (RopeJoint ropeJoint : localRopeJoints) {
-        ropeJoint.setLowerLimit(massSideLength);
-        ropeJoint.setLowerLimitEnabled(true);
-        ropeJoint.setUpperLimitEnabled(false);
+      ropeJoints = new RopeJoint[4];
+      for (int i = 0; i < ropeJoints.length; i++) {
+        int j = (i + 1) % 4;
+        ropeJoints[i] = new RopeJoint(vertexBodies[i], vertexBodies[j], vertexBodies[i].getWorldCenter(), vertexBodies[j].getWorldCenter());
+        ropeJoints[i].setLowerLimit(template.massSideLength);
+        ropeJoints[i].setLowerLimitEnabled(true);
+        ropeJoints[i].setUpperLimitEnabled(false);
       }
+    } else {
+      ropeJoints = new RopeJoint[0];
     }
-    ropeJoints = localRopeJoints.toArray(new RopeJoint[0]);
     //build distance joints
-    List<DistanceJoint> allSpringJoints = new ArrayList<>();
-    double minSideLength = Math.sqrt(sideLength * sideLength * (1d - description.areaRatioOffset));
-    double maxSideLength = Math.sqrt(sideLength * sideLength * (1d + description.areaRatioOffset));
-    SpringRange sideParallelRange = new SpringRange(minSideLength - 2d * massSideLength, sideLength - 2d * massSideLength, maxSideLength - 2d * massSideLength);
-    SpringRange sideCrossRange = new SpringRange(Math.sqrt(massSideLength * massSideLength + sideParallelRange.min * sideParallelRange.min), Math.sqrt(massSideLength * massSideLength + sideParallelRange.rest * sideParallelRange.rest), Math.sqrt(massSideLength * massSideLength + sideParallelRange.max * sideParallelRange.max));
-    SpringRange centralCrossRange = new SpringRange((minSideLength - massSideLength) * Math.sqrt(2d), (sideLength - massSideLength) * Math.sqrt(2d), (maxSideLength - massSideLength) * Math.sqrt(2d));
-    if (description.springScaffoldings.contains(SpringScaffolding.SIDE_INTERNAL)) {
-      List<DistanceJoint> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint(vertexBodies[0], vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[1], vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[2], vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[3], vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint joint : localSpringJoints) {
-        joint.setUserData(sideParallelRange);
-      }
-      allSpringJoints.addAll(localSpringJoints);
+    springJoints = new DistanceJoint[template.springRanges.length];
+    for (int i = 0; i < springJoints.length; i++) {
+      double[] anchors = template.springAnchors[i];
+      springJoints[i] = new DistanceJoint(
+          vertexBodies[template.springBodies[i][0]],
+          vertexBodies[template.springBodies[i][1]],
+          new Vector2(anchors[0], anchors[1]),
+          new Vector2(anchors[2], anchors[3])
+      );
+      springJoints[i].setUserData(template.springRanges[i]);
+      springJoints[i].setDistance(template.springRanges[i].rest);
+      springJoints[i].setFrequency(description.springF);
+      springJoints[i].setDampingRatio(description.springD);
     }
-    if (description.springScaffoldings.contains(SpringScaffolding.SIDE_EXTERNAL)) {
-      List<DistanceJoint> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint(vertexBodies[0], vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[1], vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[2], vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[3], vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint joint : localSpringJoints) {
-        joint.setUserData(sideParallelRange);
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    if (description.springScaffoldings.contains(SpringScaffolding.SIDE_CROSS)) {
-      List<DistanceJoint> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint(vertexBodies[0], vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[0], vertexBodies[1],
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[1], vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[1], vertexBodies[2],
-          vertexBodies[1].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[2].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[2], vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[2], vertexBodies[3],
-          vertexBodies[2].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d),
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[3], vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(-massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(+massSideLength / 2d, -massSideLength / 2d)
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[3], vertexBodies[0],
-          vertexBodies[3].getWorldCenter().copy().add(+massSideLength / 2d, +massSideLength / 2d),
-          vertexBodies[0].getWorldCenter().copy().add(-massSideLength / 2d, -massSideLength / 2d)
-      ));
-      for (DistanceJoint joint : localSpringJoints) {
-        joint.setUserData(sideCrossRange);
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    if (description.springScaffoldings.contains(SpringScaffolding.CENTRAL_CROSS)) {
-      List<DistanceJoint> localSpringJoints = new ArrayList<>();
-      localSpringJoints.add(new DistanceJoint(vertexBodies[0], vertexBodies[2],
-          vertexBodies[0].getWorldCenter(),
-          vertexBodies[2].getWorldCenter()
-      ));
-      localSpringJoints.add(new DistanceJoint(vertexBodies[1], vertexBodies[3],
-          vertexBodies[1].getWorldCenter(),
-          vertexBodies[3].getWorldCenter()
-      ));
-      for (DistanceJoint joint : localSpringJoints) {
-        joint.setUserData(centralCrossRange);
-      }
-      allSpringJoints.addAll(localSpringJoints);
-    }
-    //setup spring joints
-    for (DistanceJoint joint : allSpringJoints) {
-      joint.setDistance(((SpringRange) joint.getUserData()).rest);
-      joint.setFrequency(description.springF);
-      joint.setDampingRatio(description.springD);
-    }
-    springJoints = allSpringJoints.toArray(new DistanceJoint[0]);
+  }
+
+  private static Template template(Description description) {
+    return TEMPLATES.computeIfAbsent(new TemplateKey(description), Template::new);
   }
 
   @Override
@@ -446,7 +507,7 @@ public class Voxel implements WorldObject {
           voxelShape,
           pair.getValue(),
           sensor.domains(),
-          (sensor instanceof Configurable) ? ((Configurable) sensor).toConfiguration() : null,
+          sensorConfiguration(i),
           i,
           nOfSensors
       ));
@@ -461,6 +522,97 @@ public class Voxel implements WorldObject {
     return immutable;
   }
 
+  ImmutableRobot.VoxelTopology topology() {
+    Class<? extends Object>[] bodyClasses = new Class<?>[vertexBodies.length];
+    int[] bodyHashCodes = new int[vertexBodies.length];
+    for (int i = 0; i < vertexBodies.length; i++) {
+      bodyClasses[i] = vertexBodies[i].getClass();
+      bodyHashCodes[i] = vertexBodies[i].hashCode();
+    }
+    Class<? extends Object>[] jointClasses = new Class<?>[springJoints.length];
+    int[] jointHashCodes = new int[springJoints.length];
+    for (int i = 0; i < springJoints.length; i++) {
+      jointClasses[i] = springJoints[i].getClass();
+      jointHashCodes[i] = springJoints[i].hashCode();
+    }
+    Class<? extends Object>[] sensorClasses = new Class<?>[sensors.size()];
+    int[] sensorHashCodes = new int[sensors.size()];
+    Sensor.Domain[][] sensorDomains = new Sensor.Domain[sensors.size()][];
+    for (int i = 0; i < sensors.size(); i++) {
+      sensorClasses[i] = sensors.get(i).getClass();
+      sensorHashCodes[i] = sensors.get(i).hashCode();
+      sensorDomains[i] = sensors.get(i).domains();
+    }
+    return new ImmutableRobot.VoxelTopology(
+        getClass(), hashCode(), sideLength * sideLength,
+        bodyClasses, bodyHashCodes,
+        jointClasses, jointHashCodes,
+        sensorClasses, sensorHashCodes, sensorDomains
+    );
+  }
+
+  void fillCoordinates(double[] coordinates, int offset, Vector2 v) {
+    int c = offset;
+    //voxel shape
+    for (int i = 0; i < 4; i++) {
+      vertexBodies[i].getTransform().getTransformed(((Rectangle) vertexBodies[i].getFixture(0).getShape()).getVertices()[3 - i], v);
+      coordinates[c] = v.x;
+      coordinates[c + 1] = v.y;
+      c = c + 2;
+    }
+    //bodies
+    for (Body body : vertexBodies) {
+      Transform t = body.getTransform();
+      Vector2[] vertices = ((Rectangle) body.getFixture(0).getShape()).getVertices();
+      for (int i = 0; i < 4; i++) {
+        t.getTransformed(vertices[i], v);
+        coordinates[c] = v.x;
+        coordinates[c + 1] = v.y;
+        c = c + 2;
+      }
+    }
+    //joints
+    for (DistanceJoint joint : springJoints) {
+      Vector2 anchor1 = joint.getAnchor1();
+      Vector2 anchor2 = joint.getAnchor2();
+      coordinates[c] = anchor1.x;
+      coordinates[c + 1] = anchor1.y;
+      coordinates[c + 2] = anchor2.x;
+      coordinates[c + 3] = anchor2.y;
+      c = c + 4;
+    }
+  }
+
+  void fillReadings(double[][] readings, List<Configuration<? extends Sensor>> configurations, int offset) {
+    for (int i = 0; i < lastSensorReadings.size(); i++) {
+      readings[offset + i] = lastSensorReadings.get(i).getValue();
+      configurations.set(offset + i, sensorConfiguration(i));
+    }
+  }
+
+  //sensors may be reconfigured at any time, but only with setConfigurable: configurations are taken again after a change
+  private Configuration<? extends Sensor> sensorConfiguration(int i) {
+    long version = Configurable.configurationVersion();
+    if (version != sensorConfigurationsVersion) {
+      List<Configuration<? extends Sensor>> configurations = new ArrayList<>(sensors.size());
+      for (Sensor sensor : sensors) {
+        configurations.add(configuration(sensor));
+      }
+      sensorConfigurations = configurations;
+      sensorConfigurationsVersion = version;
+    }
+    return sensorConfigurations.get(i);
+  }
+
+  //the type of the configuration of a configurable is its class
+  @SuppressWarnings("unchecked")
+  private static Configuration<? extends Sensor> configuration(Sensor sensor) {
+    if (!(sensor instanceof Configurable)) {
+      return null;
+    }
+    return (Configuration<? extends Sensor>) ((Configurable<?>) sensor).toConfiguration();
+  }
+
   private Vector2 getIndexedVertex(int i, int j) {
     Transform t = vertexBodies[i].getTransform();
     Rectangle rectangle = (Rectangle) vertexBodies[i].getFixture(0).getShape();
@@ -495,6 +647,49 @@ public class Voxel implements WorldObject {
     }
   }
 
+  /**
+   * Stores the current position of the bodies as the one to which {@link #reset()} brings them back.
+   */
+  void saveInitialState() {
+    initialTransforms = new Transform[vertexBodies.length];
+    for (int i = 0; i < vertexBodies.length; i++) {
+      initialTransforms[i] = vertexBodies[i].getTransform().copy();
+    }
+  }
+
+  /**
+   * Brings this voxel back to the state it had when {@link #saveInitialState()} was invoked, as if it were just built:
+   * bodies are still and at their initial position, springs are at rest, and joints have no impulses to be used for
+   * warm starting.
+   */
+  //sensors are taken from description, which is expected to describe the same voxel of the one this was built with
+  void reset(Description description) {
+    sensors = new ArrayList<>(description.sensors);
+    sensorConfigurationsVersion = -1;
+    for (int i = 0; i < vertexBodies.length; i++) {
+      Body body = vertexBodies[i];
+      body.setTransform(initialTransforms[i]);
+      body.setLinearVelocity(0d, 0d);
+      body.setAngularVelocity(0d);
+      body.clearForce();
+      body.clearTorque();
+      body.clearAccumulatedForce();
+      body.clearAccumulatedTorque();
+      body.setAsleep(false);
+      body.setActive(true);
+    }
+    for (DistanceJoint joint : springJoints) {
+      joint.setDistance(((SpringRange) joint.getUserData()).rest);
+      JointImpulses.clear(joint);
+    }
+    for (RopeJoint joint : ropeJoints) {
+      JointImpulses.clear(joint);
+    }
+    lastAppliedForce = 0d;
+    lastSensorReadings = Collections.emptyList();
+    world = null;
+  }
+
   public List<Pair<Sensor, double[]>> sense(double t) {
     List<Pair<Sensor, double[]>> pairs = sensors.stream()
         .map(s -> Pair.of(s, s.sense(this, t)))
@@ -43,6 +43,13 @@ public class ImmutableObject {
     this.children = Collections.EMPTY_LIST;
   }
 
+  public ImmutableObject(Class<? extends Object> objectClass, int objectHashCode, Shape shape, List<ImmutableObject> children) {
+    this.objectClass = objectClass;
+    this.objectHashCode = objectHashCode;
+    this.shape = shape;
+    this.children = Collections.unmodifiableList(children);
+  }
+
   public Class<? extends Object> getObjectClass() {
     return objectClass;
   }
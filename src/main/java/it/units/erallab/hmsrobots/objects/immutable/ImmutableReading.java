@@ -19,6 +19,8 @@ package it.units.erallab.hmsrobots.objects.immutable;
 import it.units.erallab.hmsrobots.sensors.Sensor;
 import it.units.erallab.hmsrobots.util.Configuration;
 
+import java.util.Collections;
+
 public class ImmutableReading extends ImmutableObject {
   private final double[] values;
   private final Sensor.Domain[] domains;
@@ -35,6 +37,15 @@ public class ImmutableReading extends ImmutableObject {
     this.nOfSensors = nOfSensors;
   }
 
+  public ImmutableReading(Class<? extends Object> objectClass, int objectHashCode, Shape shape, double[] values, Sensor.Domain[] domains, Configuration<? extends Sensor> configuration, int index, int nOfSensors) {
+    super(objectClass, objectHashCode, shape, Collections.emptyList());
+    this.values = values;
+    this.domains = domains;
+    this.configuration = configuration;
+    this.index = index;
+    this.nOfSensors = nOfSensors;
+  }
+
   public double[] getValues() {
     return values;
   }
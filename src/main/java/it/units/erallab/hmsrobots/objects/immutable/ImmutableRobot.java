@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.objects.immutable;
+
+import it.units.erallab.hmsrobots.sensors.Sensor;
+import it.units.erallab.hmsrobots.util.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Columnar immutable representation of a robot.
+ * <p>
+ * The parts of the robot which do not change over time (classes and hash codes of voxels, bodies, joints, and
+ * sensors, rest areas, sensor domains) are stored in a {@link Topology} which is computed once per robot and shared
+ * among all its snapshots. Each snapshot stores only one array with all the vertex coordinates and the references to
+ * the sensor readings. Children are built only if and when requested with {@link #getChildren()}, as {@link
+ * ImmutableVoxel}s with the same structure produced by {@link it.units.erallab.hmsrobots.objects.Voxel#immutable()}.
+ * <p>
+ * Coordinates of each voxel, starting at {@link VoxelTopology#getOffset()}, are stored as x,y pairs as follows: the 4
+ * vertexes of the voxel polygon, the 4 vertexes of each body, the 2 anchors of each joint.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class ImmutableRobot extends ImmutableObject {
+
+  public static class VoxelTopology {
+
+    private final Class<? extends Object> voxelClass;
+    private final int voxelHashCode;
+    private final double restArea;
+    private final Class<? extends Object>[] bodyClasses;
+    private final int[] bodyHashCodes;
+    private final Class<? extends Object>[] jointClasses;
+    private final int[] jointHashCodes;
+    private final Class<? extends Object>[] sensorClasses;
+    private final int[] sensorHashCodes;
+    private final Sensor.Domain[][] sensorDomains;
+    private int offset;
+    private int sensorOffset;
+
+    public VoxelTopology(Class<? extends Object> voxelClass, int voxelHashCode, double restArea, Class<? extends Object>[] bodyClasses, int[] bodyHashCodes, Class<? extends Object>[] jointClasses, int[] jointHashCodes, Class<? extends Object>[] sensorClasses, int[] sensorHashCodes, Sensor.Domain[][] sensorDomains) {
+      this.voxelClass = voxelClass;
+      this.voxelHashCode = voxelHashCode;
+      this.restArea = restArea;
+      this.bodyClasses = bodyClasses;
+      this.bodyHashCodes = bodyHashCodes;
+      this.jointClasses = jointClasses;
+      this.jointHashCodes = jointHashCodes;
+      this.sensorClasses = sensorClasses;
+      this.sensorHashCodes = sensorHashCodes;
+      this.sensorDomains = sensorDomains;
+    }
+
+    public int getNOfBodies() {
+      return bodyClasses.length;
+    }
+
+    public int getNOfJoints() {
+      return jointClasses.length;
+    }
+
+    public int getNOfSensors() {
+      return sensorClasses.length;
+    }
+
+    public int getNOfCoordinates() {
+      return 2 * (4 + 4 * bodyClasses.length + 2 * jointClasses.length);
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getSensorOffset() {
+      return sensorOffset;
+    }
+
+    public double getRestArea() {
+      return restArea;
+    }
+  }
+
+  public static class Topology {
+
+    private final VoxelTopology[] voxels;
+    private final int nOfCoordinates;
+    private final int nOfSensors;
+    private final int[] outlineOffsets;
+    private final double meanVoxelSide;
+
+    public Topology(List<VoxelTopology> voxels) {
+      this(voxels, null);
+    }
+
+    /**
+     * Builds the topology of a robot made of the given voxels; for each voxel, {@code outerSides} tells which of the 4
+     * sides of its polygon (the side from vertex {@code i} to vertex {@code i+1}, for {@code i=0,...,3}) are not
+     * shared with another voxel. If {@code outerSides} is {@code null}, all the sides are considered outer sides.
+     */
+    public Topology(List<VoxelTopology> voxels, List<boolean[]> outerSides) {
+      this.voxels = voxels.toArray(new VoxelTopology[0]);
+      int offset = 0;
+      int sensorOffset = 0;
+      double sideSum = 0d;
+      for (VoxelTopology voxel : this.voxels) {
+        voxel.offset = offset;
+        voxel.sensorOffset = sensorOffset;
+        offset = offset + voxel.getNOfCoordinates();
+        sensorOffset = sensorOffset + voxel.getNOfSensors();
+        sideSum = sideSum + Math.sqrt(voxel.getRestArea());
+      }
+      nOfCoordinates = offset;
+      nOfSensors = sensorOffset;
+      meanVoxelSide = (this.voxels.length > 0) ? (sideSum / (double) this.voxels.length) : 0d;
+      //store outer sides as pairs of offsets of their vertexes
+      List<Integer> offsets = new ArrayList<>();
+      for (int i = 0; i < this.voxels.length; i++) {
+        for (int j = 0; j < 4; j++) {
+          if ((outerSides == null) || outerSides.get(i)[j]) {
+            offsets.add(this.voxels[i].offset + 2 * j);
+            offsets.add(this.voxels[i].offset + 2 * ((j + 1) % 4));
+          }
+        }
+      }
+      outlineOffsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public int getNOfVoxels() {
+      return voxels.length;
+    }
+
+    public VoxelTopology getVoxel(int i) {
+      return voxels[i];
+    }
+
+    public int getNOfCoordinates() {
+      return nOfCoordinates;
+    }
+
+    public int getNOfSensors() {
+      return nOfSensors;
+    }
+
+    /**
+     * Returns the outer sides of the robot, as pairs of offsets, in the coordinates array, of the x coordinate of
+     * the two vertexes of each side.
+     */
+    public int[] getOutlineOffsets() {
+      return outlineOffsets;
+    }
+
+    public double getMeanVoxelSide() {
+      return meanVoxelSide;
+    }
+  }
+
+  private final Topology topology;
+  private final double[] coordinates;
+  private final double[][] readings;
+  private final List<Configuration<? extends Sensor>> configurations;
+  private volatile List<ImmutableObject> children;
+  private volatile BoundingBox boundingBox;
+
+  public ImmutableRobot(Object object, Topology topology, double[] coordinates, double[][] readings, List<Configuration<? extends Sensor>> configurations) {
+    super(object, null);
+    this.topology = topology;
+    this.coordinates = coordinates;
+    this.readings = readings;
+    this.configurations = configurations;
+  }
+
+  private ImmutableRobot(Class<? extends Object> objectClass, int objectHashCode, Topology topology, double[] coordinates, double[][] readings, List<Configuration<? extends Sensor>> configurations) {
+    super(objectClass, objectHashCode, null, Collections.emptyList());
+    this.topology = topology;
+    this.coordinates = coordinates;
+    this.readings = readings;
+    this.configurations = configurations;
+  }
+
+  /**
+   * Builds the robot with coordinates linearly interpolated between those of {@code before} ({@code alpha=0}) and
+   * {@code after} ({@code alpha=1}), which must share the same {@link Topology}; readings are taken from the closer
+   * one.
+   */
+  public static ImmutableRobot interpolate(ImmutableRobot before, ImmutableRobot after, double alpha) {
+    double[] coordinates = new double[before.coordinates.length];
+    for (int i = 0; i < coordinates.length; i++) {
+      coordinates[i] = before.coordinates[i] + alpha * (after.coordinates[i] - before.coordinates[i]);
+    }
+    ImmutableRobot closer = (alpha < 0.5d) ? before : after;
+    return new ImmutableRobot(closer.getObjectClass(), closer.getObjectHashCode(), closer.topology, coordinates, closer.readings, closer.configurations);
+  }
+
+  public Topology getTopology() {
+    return topology;
+  }
+
+  public double[] getCoordinates() {
+    return coordinates;
+  }
+
+  public double[][] getReadings() {
+    return readings;
+  }
+
+  public BoundingBox getBoundingBox() {
+    BoundingBox localBoundingBox = boundingBox;
+    if (localBoundingBox == null) {
+      localBoundingBox = computeBoundingBox();
+      boundingBox = localBoundingBox;
+    }
+    return localBoundingBox;
+  }
+
+  private BoundingBox computeBoundingBox() {
+    double minX = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < topology.voxels.length; i++) {
+      int offset = topology.voxels[i].offset;
+      for (int j = 0; j < 4; j++) {
+        minX = Math.min(minX, coordinates[offset + 2 * j]);
+        maxX = Math.max(maxX, coordinates[offset + 2 * j]);
+        minY = Math.min(minY, coordinates[offset + 2 * j + 1]);
+        maxY = Math.max(maxY, coordinates[offset + 2 * j + 1]);
+      }
+    }
+    return BoundingBox.build(Point2.build(minX, minY), Point2.build(maxX, maxY));
+  }
+
+  public Point2 getCenter() {
+    double cx = 0d;
+    double cy = 0d;
+    for (int i = 0; i < topology.voxels.length; i++) {
+      int offset = topology.voxels[i].offset;
+      for (int j = 0; j < 4; j++) {
+        cx = cx + coordinates[offset + 2 * j];
+        cy = cy + coordinates[offset + 2 * j + 1];
+      }
+    }
+    double n = 4d * (double) topology.voxels.length;
+    return Point2.build(cx / n, cy / n);
+  }
+
+  @Override
+  public List<ImmutableObject> getChildren() {
+    List<ImmutableObject> localChildren = children;
+    if (localChildren == null) {
+      localChildren = Collections.unmodifiableList(buildChildren());
+      children = localChildren;
+    }
+    return localChildren;
+  }
+
+  private List<ImmutableObject> buildChildren() {
+    List<ImmutableObject> voxels = new ArrayList<>(topology.voxels.length);
+    for (VoxelTopology voxel : topology.voxels) {
+      int c = voxel.offset;
+      Poly voxelShape = poly(c, 4);
+      c = c + 8;
+      List<ImmutableObject> voxelChildren = new ArrayList<>(voxel.bodyClasses.length + voxel.jointClasses.length + voxel.sensorClasses.length);
+      for (int i = 0; i < voxel.bodyClasses.length; i++) {
+        voxelChildren.add(new ImmutableObject(voxel.bodyClasses[i], voxel.bodyHashCodes[i], poly(c, 4), Collections.emptyList()));
+        c = c + 8;
+      }
+      for (int i = 0; i < voxel.jointClasses.length; i++) {
+        voxelChildren.add(new ImmutableObject(voxel.jointClasses[i], voxel.jointHashCodes[i], Vector.build(
+            Point2.build(coordinates[c], coordinates[c + 1]),
+            Point2.build(coordinates[c + 2], coordinates[c + 3])
+        ), Collections.emptyList()));
+        c = c + 4;
+      }
+      for (int i = 0; i < voxel.sensorClasses.length; i++) {
+        if (readings[voxel.sensorOffset + i] == null) {
+          //not sensed yet
+          continue;
+        }
+        voxelChildren.add(new ImmutableReading(
+            voxel.sensorClasses[i],
+            voxel.sensorHashCodes[i],
+            voxelShape,
+            readings[voxel.sensorOffset + i],
+            voxel.sensorDomains[i],
+            configurations.get(voxel.sensorOffset + i),
+            i,
+            voxel.sensorClasses.length
+        ));
+      }
+      voxels.add(new ImmutableVoxel(voxel.voxelClass, voxel.voxelHashCode, voxelShape, voxelChildren, voxel.restArea));
+    }
+    return voxels;
+  }
+
+  private Poly poly(int offset, int n) {
+    Point2[] points = new Point2[n];
+    for (int i = 0; i < n; i++) {
+      points[i] = Point2.build(coordinates[offset + 2 * i], coordinates[offset + 2 * i + 1]);
+    }
+    return Poly.build(points);
+  }
+
+}
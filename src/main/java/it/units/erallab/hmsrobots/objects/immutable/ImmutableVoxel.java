@@ -21,6 +21,11 @@ public class ImmutableVoxel extends ImmutableObject {
     this.restArea = restArea;
   }
 
+  public ImmutableVoxel(Class<? extends Object> objectClass, int objectHashCode, Shape shape, List<ImmutableObject> children, double restArea) {
+    super(objectClass, objectHashCode, shape, children);
+    this.restArea = restArea;
+  }
+
   public double getRestArea() {
     return restArea;
   }
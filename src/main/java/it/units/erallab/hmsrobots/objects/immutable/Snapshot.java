@@ -17,8 +17,7 @@
 package it.units.erallab.hmsrobots.objects.immutable;
 
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.*;
 
 /**
  *
@@ -42,6 +41,33 @@ public class Snapshot implements Serializable, Comparable<Snapshot> {
     return objects;
   }
 
+  /**
+   * Builds the snapshot at {@code time}, between the times of {@code before} and {@code after}, of the same world. The
+   * coordinates of the {@link ImmutableRobot}s are linearly interpolated; the other objects, and the readings of the
+   * robots, are taken from the snapshot which is closer in time.
+   */
+  public static Snapshot interpolate(Snapshot before, Snapshot after, double time) {
+    double alpha = (time - before.time) / (after.time - before.time);
+    Snapshot closer = (alpha < 0.5d) ? before : after;
+    if (before.objects.size() != after.objects.size()) {
+      return new Snapshot(time, closer.objects);
+    }
+    List<ImmutableObject> objects = new ArrayList<>(before.objects.size());
+    Iterator<ImmutableObject> beforeIterator = before.objects.iterator();
+    Iterator<ImmutableObject> afterIterator = after.objects.iterator();
+    while (beforeIterator.hasNext()) {
+      ImmutableObject beforeObject = beforeIterator.next();
+      ImmutableObject afterObject = afterIterator.next();
+      if ((beforeObject instanceof ImmutableRobot) && (afterObject instanceof ImmutableRobot)
+          && (((ImmutableRobot) beforeObject).getTopology() == ((ImmutableRobot) afterObject).getTopology())) {
+        objects.add(ImmutableRobot.interpolate((ImmutableRobot) beforeObject, (ImmutableRobot) afterObject, alpha));
+      } else {
+        objects.add((alpha < 0.5d) ? beforeObject : afterObject);
+      }
+    }
+    return new Snapshot(time, objects);
+  }
+
   @Override
   public int compareTo(Snapshot other) {
     return Double.compare(time, other.time);
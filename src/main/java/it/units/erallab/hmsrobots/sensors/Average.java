@@ -62,4 +62,12 @@ public class Average implements Sensor, Configurable<Average> {
     return sums;
   }
 
+  public Sensor getSensor() {
+    return sensor;
+  }
+
+  public double getInterval() {
+    return interval;
+  }
+
 }
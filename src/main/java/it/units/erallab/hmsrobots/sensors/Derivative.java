@@ -50,4 +50,8 @@ public class Derivative implements Sensor, Configurable<Derivative> {
     lastReadings = currentReadings;
     return diffs;
   }
+
+  public Sensor getSensor() {
+    return sensor;
+  }
 }
@@ -48,4 +48,8 @@ public class Normalization implements Sensor, Configurable<Normalization> {
     return values;
   }
 
+  public Sensor getSensor() {
+    return sensor;
+  }
+
 }
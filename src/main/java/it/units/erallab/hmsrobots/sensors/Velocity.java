@@ -82,4 +82,16 @@ public class Velocity implements Sensor, Configurable<Velocity> {
     }
     return values;
   }
+
+  public boolean isRotated() {
+    return rotated;
+  }
+
+  public EnumSet<Axis> getAxes() {
+    return axes;
+  }
+
+  public double getMaxVelocityNorm() {
+    return maxVelocityNorm;
+  }
 }
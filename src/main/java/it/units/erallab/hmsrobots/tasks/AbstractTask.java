@@ -16,6 +16,8 @@
  */
 package it.units.erallab.hmsrobots.tasks;
 
+import it.units.erallab.hmsrobots.util.StepProfiler;
+import it.units.erallab.hmsrobots.viewers.SnapshotDecimator;
 import it.units.erallab.hmsrobots.viewers.SnapshotListener;
 import org.dyn4j.dynamics.Settings;
 
@@ -26,13 +28,42 @@ import org.dyn4j.dynamics.Settings;
 public abstract class AbstractTask<T, R> implements Task<T, R> {
   
   protected final Settings settings;
+  protected final double snapshotRate;
 
   public AbstractTask(Settings settings) {
+    this(settings, 0d);
+  }
+
+  /**
+   * @param snapshotRate the number of snapshots per unit of simulated time to be passed to listeners; if not
+   *                     positive, one snapshot for each simulation step is passed
+   */
+  public AbstractTask(Settings settings, double snapshotRate) {
     this.settings = settings;
+    this.snapshotRate = snapshotRate;
   }
 
   public Settings getSettings() {
     return settings;
   }
+
+  public double getSnapshotRate() {
+    return snapshotRate;
+  }
+
+  /**
+   * Runs the task as {@link #apply(Object, SnapshotListener)} and accumulates in {@code profiler} the time spent in
+   * each phase of the simulation steps; tasks which do not support profiling leave the profiler untouched.
+   */
+  public R apply(T solution, SnapshotListener listener, StepProfiler profiler) {
+    return apply(solution, listener);
+  }
+
+  protected SnapshotDecimator decimator(SnapshotListener listener) {
+    if (listener == null) {
+      return null;
+    }
+    return new SnapshotDecimator(snapshotRate, settings.getStepFrequency(), listener);
+  }
     
 }
@@ -23,14 +23,22 @@ import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
 import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.StepProfiler;
+import it.units.erallab.hmsrobots.viewers.SnapshotDecimator;
 import it.units.erallab.hmsrobots.viewers.SnapshotListener;
+import org.dyn4j.dynamics.Capacity;
 import org.dyn4j.dynamics.Settings;
 import org.dyn4j.dynamics.World;
+import org.dyn4j.dynamics.contact.DefaultContactManager;
 import org.dyn4j.geometry.Vector2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class Locomotion extends AbstractTask<Robot.Description, List<Double>> {
@@ -39,6 +47,8 @@ public class Locomotion extends AbstractTask<Robot.Description, List<Double>> {
   private final static double INITIAL_PLACEMENT_Y_GAP = 1d;
   private final static double TERRAIN_BORDER_HEIGHT = 100d;
   private final static int TERRAIN_POINTS = 50;
+  private final static double TERRAIN_LENGTH = 2000d;
+  private final static double GROUND_WINDOW_MARGIN = 10d;
 
   public enum Metric {
     TRAVEL_X_VELOCITY(false),
@@ -59,57 +69,157 @@ public class Locomotion extends AbstractTask<Robot.Description, List<Double>> {
 
   }
 
+  //the world, ground, and last robot kept by one thread for reuse
+  private static class Arena {
+    private final World world;
+    private final Ground ground;
+    private Robot robot;
+
+    private Arena(World world, Ground ground) {
+      this.world = world;
+      this.ground = ground;
+    }
+  }
+
   private final double finalT;
   private final double[][] groundProfile;
   private final List<Metric> metrics;
+  private final Ground groundTemplate;
+  private final transient ThreadLocal<Arena> arenas;
+  private final AtomicLong nOfReusedRobots;
+
+  //terrain profiles by name, generated once
+  private final static Map<String, double[][]> TERRAINS = new ConcurrentHashMap<>();
 
   public Locomotion(double finalT, double[][] groundProfile, List<Metric> metrics, Settings settings) {
-    super(settings);
+    this(finalT, groundProfile, metrics, 0d, settings);
+  }
+
+  public Locomotion(double finalT, double[][] groundProfile, List<Metric> metrics, double snapshotRate, Settings settings) {
+    this(finalT, groundProfile, metrics, snapshotRate, settings, false);
+  }
+
+  /**
+   * @param reuseObjects if {@code true}, each thread keeps the world with the ground of the last episode it ran, and
+   *                     its robot: in the next episode, the world is emptied and the robot is reset, rather than built
+   *                     from scratch, if it has the same voxel descriptions (see {@link Robot#isResettableTo(Robot.Description)}),
+   *                     as in controller-only optimization; outcomes are the same as without reuse
+   */
+  public Locomotion(double finalT, double[][] groundProfile, List<Metric> metrics, double snapshotRate, Settings settings, boolean reuseObjects) {
+    this(finalT, groundProfile, new Ground(groundProfile[0], groundProfile[1]), metrics, snapshotRate, settings, reuseObjects);
+  }
+
+  /**
+   * Builds a task on the profile of {@code ground}, which may be unbounded (see {@link Ground#Ground(double, double,
+   * double, long)}), for arbitrarily long episodes: {@code ground} is not used in episodes, but copied.
+   *
+   * @param reuseObjects as in {@link #Locomotion(double, double[][], List, double, Settings, boolean)}
+   */
+  public Locomotion(double finalT, Ground ground, List<Metric> metrics, double snapshotRate, Settings settings, boolean reuseObjects) {
+    this(finalT, ground.getProfile(3), new Ground(ground), metrics, snapshotRate, settings, reuseObjects);
+  }
+
+  private Locomotion(double finalT, double[][] groundProfile, Ground groundTemplate, List<Metric> metrics, double snapshotRate, Settings settings, boolean reuseObjects) {
+    super(settings, snapshotRate);
     this.finalT = finalT;
     this.groundProfile = groundProfile;
     this.metrics = metrics;
+    this.groundTemplate = groundTemplate;
+    arenas = reuseObjects ? new ThreadLocal<>() : null;
+    nOfReusedRobots = new AtomicLong();
+  }
+
+  /**
+   * Returns the number of episodes, on any thread, whose robot was reset rather than built from scratch.
+   */
+  public long getNOfReusedRobots() {
+    return nOfReusedRobots.get();
   }
 
   @Override
   public List<Double> apply(Robot.Description description, SnapshotListener listener) {
+    return apply(description, listener, StepProfiler.DISABLED);
+  }
+
+  @Override
+  public List<Double> apply(Robot.Description description, SnapshotListener listener, StepProfiler profiler) {
     List<Point2> centerPositions = new ArrayList<>();
     //init world
-    World world = new World();
-    world.setSettings(settings);
-    List<WorldObject> worldObjects = new ArrayList<>();
-    Ground ground = new Ground(groundProfile[0], groundProfile[1]);
-    ground.addTo(world);
-    worldObjects.add(ground);
+    Arena arena = (arenas != null) ? arenas.get() : null;
+    World world;
+    Ground ground;
+    if (arena != null) {
+      world = arena.world;
+      world.removeAllBodiesAndJoints(true);
+      //a cleared contact manager keeps the capacity of its maps, which alters the order of contacts: a new one is needed
+      world.setContactManager(new DefaultContactManager(Capacity.DEFAULT_CAPACITY));
+      ground = arena.ground;
+    } else {
+      world = new World();
+      world.setSettings(settings);
+      ground = new Ground(groundTemplate);
+    }
     //position robot: x of rightmost point is on 2nd point of profile
-    Robot robot = new Robot(0d, 0d, description);
+    Robot robot;
+    if ((arena != null) && (arena.robot != null) && arena.robot.isResettableTo(description)) {
+      robot = arena.robot;
+      robot.reset(description);
+      nOfReusedRobots.incrementAndGet();
+    } else {
+      robot = new Robot(0d, 0d, description);
+    }
+    if (arenas != null) {
+      if (arena == null) {
+        arena = new Arena(world, ground);
+        arenas.set(arena);
+      }
+      arena.robot = robot;
+    }
     BoundingBox boundingBox = robot.boundingBox();
     double xLeft = groundProfile[0][1] + INITIAL_PLACEMENT_X_GAP;
     double yGroundLeft = groundProfile[1][1];
     double xRight = xLeft + boundingBox.max.x - boundingBox.min.x;
-    double yGroundRight = yGroundLeft + (groundProfile[1][2] - yGroundLeft) * (xRight - xLeft) / (groundProfile[0][2] - xLeft);
-    double topmostGroundY = Math.max(yGroundLeft, yGroundRight);
+    double topmostGroundY;
+    if (xRight < groundProfile[0][2]) {
+      double yGroundRight = yGroundLeft + (groundProfile[1][2] - yGroundLeft) * (xRight - xLeft) / (groundProfile[0][2] - xLeft);
+      topmostGroundY = Math.max(yGroundLeft, yGroundRight);
+    } else {
+      //the robot is wider than the 2nd segment, e.g., on grounds with short segments
+      topmostGroundY = ground.getMaxY(xLeft - groundProfile[0][0], xRight - groundProfile[0][0]);
+    }
     Vector2 targetPoint = new Vector2(xLeft, topmostGroundY + INITIAL_PLACEMENT_Y_GAP);
     Vector2 currentPoint = new Vector2(boundingBox.min.x, boundingBox.min.y);
     Vector2 movement = targetPoint.subtract(currentPoint);
     robot.translate(movement);
     //get initial x
     double initCenterX = robot.getCenter().x;
-    //add robot to world
+    //keep in the ground only the segments around the robot, set before adding the ground, which is then in the same state regardless of previous episodes
+    double groundWindowHalfWidth = boundingBox.max.x - boundingBox.min.x + GROUND_WINDOW_MARGIN;
+    ground.setWindow(initCenterX - groundProfile[0][0] - groundWindowHalfWidth, initCenterX - groundProfile[0][0] + groundWindowHalfWidth);
+    //add ground and robot to world
+    List<WorldObject> worldObjects = new ArrayList<>();
+    ground.addTo(world);
+    worldObjects.add(ground);
     robot.addTo(world);
     worldObjects.add(robot);
     //prepare storage objects
+    SnapshotDecimator decimator = decimator(listener);
     Grid<Double> lastControlSignals = null;
     Grid<Double> sumOfSquaredControlSignals = Grid.create(robot.getVoxels().getW(), robot.getVoxels().getH(), 0d);
     Grid<Double> sumOfSquaredDeltaControlSignals = Grid.create(robot.getVoxels().getW(), robot.getVoxels().getH(), 0d);
+    int nOfVoxels = (int) robot.getVoxels().count(v -> v != null);
     //run
     double t = 0d;
     long steps = 0;
     while (t < finalT) {
       t = t + settings.getStepFrequency();
+      long nanos = profiler.start();
       world.step(1);
+      profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+      profiler.step(settings.getStepFrequency(), nOfVoxels);
       steps = steps + 1;
       //control and update control signals metrics
-      Grid<Double> controlSignals = robot.act(t);
+      Grid<Double> controlSignals = robot.act(t, profiler);
       if (lastControlSignals == null) {
         lastControlSignals = Grid.copy(controlSignals);
       }
@@ -124,12 +234,19 @@ public class Locomotion extends AbstractTask<Robot.Description, List<Double>> {
           lastControlSignals.set(x, y, entry.getValue());
         }
       }
-      //update center position metrics
-      centerPositions.add(Point2.build(robot.getCenter()));
+      //update center position metrics and ground window
+      Point2 center = Point2.build(robot.getCenter());
+      centerPositions.add(center);
+      nanos = profiler.start();
+      ground.setWindow(center.x - groundProfile[0][0] - groundWindowHalfWidth, center.x - groundProfile[0][0] + groundWindowHalfWidth);
+      profiler.stop(StepProfiler.Phase.GROUND, nanos);
       //possibly output snapshot
-      if (listener != null) {
+      if ((decimator != null) && decimator.isNeeded(t)) {
+        nanos = profiler.start();
         Snapshot snapshot = new Snapshot(t, worldObjects.stream().map(WorldObject::immutable).collect(Collectors.toList()));
-        listener.listen(snapshot);
+        nanos = profiler.stop(StepProfiler.Phase.SNAPSHOT, nanos);
+        decimator.listen(snapshot);
+        profiler.stop(StepProfiler.Phase.LISTENER, nanos);
       }
     }
     //compute metrics
@@ -172,13 +289,41 @@ public class Locomotion extends AbstractTask<Robot.Description, List<Double>> {
     return new double[][]{xs, ys};
   }
 
+  /**
+   * Returns the profile of the terrain called {@code name}, or {@code null} if there is no such terrain. Profiles are
+   * generated once and cached: the returned arrays are copies which the caller can modify.
+   */
   public static double[][] createTerrain(String name) {
+    double[][] terrain = TERRAINS.computeIfAbsent(name, Locomotion::generateTerrain);
+    if (terrain == null) {
+      return null;
+    }
+    return new double[][]{Arrays.copyOf(terrain[0], terrain[0].length), Arrays.copyOf(terrain[1], terrain[1].length)};
+  }
+
+  private static double[][] generateTerrain(String name) {
     Random random = new Random(1);
     if (name.equals("flat")) {
       return new double[][]{new double[]{0, 10, 1990, 2000}, new double[]{TERRAIN_BORDER_HEIGHT, 0, 0, TERRAIN_BORDER_HEIGHT}};
     } else if (name.startsWith("uneven")) {
       int h = Integer.parseInt(name.replace("uneven", ""));
-      return randomTerrain(TERRAIN_POINTS, 2000, h, TERRAIN_BORDER_HEIGHT, random);
+      return randomTerrain(TERRAIN_POINTS, TERRAIN_LENGTH, h, TERRAIN_BORDER_HEIGHT, random);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the unbounded ground called {@code name}, or {@code null} if there is no such ground. The ground {@code
+   * streamingN} is like the terrain {@code unevenN} (see {@link #createTerrain(String)}), with points at the same
+   * distance and peak, but never ends; {@code streamingN-L} has points every {@code L}. Grounds are meant for the
+   * {@link #Locomotion(double, Ground, List, double, Settings, boolean)} constructor. Points are determined by a fixed
+   * seed, hence grounds with the same name are equal.
+   */
+  public static Ground createGround(String name) {
+    if (name.startsWith("streaming")) {
+      String[] pieces = name.replace("streaming", "").split("-", 2);
+      double segmentLength = (pieces.length > 1) ? Double.parseDouble(pieces[1]) : ((TERRAIN_LENGTH - 2d) / (double) TERRAIN_POINTS);
+      return new Ground(segmentLength, Integer.parseInt(pieces[0]), TERRAIN_BORDER_HEIGHT, 1);
     }
     return null;
   }
@@ -18,11 +18,9 @@
 package it.units.erallab.hmsrobots.util;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
@@ -51,10 +49,7 @@ public interface Configurable<C extends Configurable> extends Serializable {
   default Set<String> configurables(ConfigurableField.Type... types) {
     EnumSet<ConfigurableField.Type> set = EnumSet.noneOf(ConfigurableField.Type.class);
     set.addAll(Lists.newArrayList(types));
-    Set<String> annotated = FieldUtils.getFieldsListWithAnnotation(getClass(), ConfigurableField.class).stream()
-        .filter(f -> set.isEmpty() || set.contains(f.getAnnotation(ConfigurableField.class).uiType()))
-        .map(Field::getName).collect(Collectors.toSet());
-    return annotated;
+    return ConfigurableAccessors.of(getClass()).names(set);
   }
 
   default Configuration<C> toConfiguration() {
@@ -65,7 +60,16 @@ public interface Configurable<C extends Configurable> extends Serializable {
         map.put(key, configuration);
       }
     }
-    return (Configuration<C>) Configuration.of(getClass(), map);
+    return (Configuration<C>) Configuration.of(getClass(), Collections.unmodifiableMap(map));
+  }
+
+  /**
+   * Returns a counter which is incremented whenever a configurable field of any object is set with {@link
+   * #setConfigurable(String, Object)}: a {@link Configuration} taken with a given value of the counter is still
+   * valid as long as the counter keeps that value, provided configurable fields are not written otherwise.
+   */
+  static long configurationVersion() {
+    return ConfigurableAccessors.version();
   }
 
   private static Configuration<?> toConfiguration(Object object) {
@@ -126,40 +130,40 @@ public interface Configurable<C extends Configurable> extends Serializable {
   }
 
   default Object getConfigurable(String key) {
-    Field field = FieldUtils.getField(getClass(), key, true);
-    if ((field == null) || ((field.getAnnotation(ConfigurableField.class) == null))) {
+    ConfigurableAccessors.Accessor accessor = ConfigurableAccessors.of(getClass()).get(key);
+    if (accessor == null) {
       Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot get value of %s", key));
       return null;
     }
     try {
-      return FieldUtils.readField(field, this);
-    } catch (IllegalAccessException e) {
-      Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot get value of %s", key), e);
+      return accessor.get(this);
+    } catch (Throwable t) {
+      Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot get value of %s", key), t);
       return null;
     }
   }
 
   default C setConfigurable(String key, Object value) {
-    Field field = FieldUtils.getField(getClass(), key, true);
-    if ((field == null) || ((field.getAnnotation(ConfigurableField.class) == null))) {
+    ConfigurableAccessors.Accessor accessor = ConfigurableAccessors.of(getClass()).get(key);
+    if (accessor == null) {
       Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot set value of %s", key));
     } else {
       try {
-        FieldUtils.writeField(field, this, value);
-      } catch (IllegalAccessException e) {
-        Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot set value of %s", key), e);
+        accessor.set(this, value);
+      } catch (Throwable t) {
+        Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot set value of %s", key), t);
       }
     }
     return (C) this;
   }
 
   default Class typeOfConfigurable(String key) {
-    Field field = FieldUtils.getField(this.getClass(), key, true);
-    if ((field == null) || ((field.getAnnotation(ConfigurableField.class) == null))) {
+    ConfigurableAccessors.Accessor accessor = ConfigurableAccessors.of(getClass()).get(key);
+    if (accessor == null) {
       Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot get type of %s", key));
       return null;
     }
-    return field.getType();
+    return accessor.getType();
   }
 
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-class table of the {@link ConfigurableField}s of a {@link Configurable}, built once, with reflection, the first
+ * time a class is used, and then accessed through method handles. Each set increments a global version, which tells
+ * if any configuration changed since it was last read.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+final class ConfigurableAccessors {
+
+  static final class Accessor {
+
+    private final Field field;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+
+    private Accessor(Field field, MethodHandle getter, MethodHandle setter) {
+      this.field = field;
+      this.getter = getter;
+      this.setter = setter;
+    }
+
+    Class<?> getType() {
+      return field.getType();
+    }
+
+    ConfigurableField.Type getUiType() {
+      return field.getAnnotation(ConfigurableField.class).uiType();
+    }
+
+    Object get(Object target) throws Throwable {
+      return getter.invoke(target);
+    }
+
+    void set(Object target, Object value) throws Throwable {
+      setter.invoke(target, value);
+      VERSION.incrementAndGet();
+    }
+  }
+
+  private static final AtomicLong VERSION = new AtomicLong();
+
+  private static final ClassValue<ConfigurableAccessors> TABLES = new ClassValue<>() {
+    @Override
+    protected ConfigurableAccessors computeValue(Class<?> type) {
+      return new ConfigurableAccessors(type);
+    }
+  };
+
+  private final Map<String, Accessor> accessors;
+  private final Map<EnumSet<ConfigurableField.Type>, Set<String>> names;
+
+  private ConfigurableAccessors(Class<?> type) {
+    Map<String, Accessor> map = new LinkedHashMap<>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    //fields of subclasses hide fields of superclasses with the same name
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if ((field.getAnnotation(ConfigurableField.class) == null) || map.containsKey(field.getName()) || Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        try {
+          field.setAccessible(true);
+          map.put(field.getName(), new Accessor(field, lookup.unreflectGetter(field), lookup.unreflectSetter(field)));
+        } catch (IllegalAccessException | RuntimeException e) {
+          Logger.getLogger(Configurable.class.getName()).log(Level.WARNING, String.format("Cannot access %s of %s", field.getName(), type.getName()), e);
+        }
+      }
+    }
+    accessors = Collections.unmodifiableMap(map);
+    names = new HashMap<>();
+  }
+
+  static long version() {
+    return VERSION.get();
+  }
+
+  static ConfigurableAccessors of(Class<?> type) {
+    return TABLES.get(type);
+  }
+
+  Accessor get(String name) {
+    return accessors.get(name);
+  }
+
+  Set<String> names(EnumSet<ConfigurableField.Type> types) {
+    synchronized (names) {
+      return names.computeIfAbsent(types, ts -> {
+        Set<String> set = new LinkedHashSet<>();
+        for (Map.Entry<String, Accessor> entry : accessors.entrySet()) {
+          if (ts.isEmpty() || ts.contains(entry.getValue().getUiType())) {
+            set.add(entry.getKey());
+          }
+        }
+        return Collections.unmodifiableSet(set);
+      });
+    }
+  }
+
+}
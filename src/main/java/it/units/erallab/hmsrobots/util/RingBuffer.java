@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free ring buffer for one producer thread and one consumer thread.
+ * <p>
+ * {@link #put(Object)} applies an {@link OverflowPolicy} when the buffer is full: {@code BLOCK} parks the producer
+ * until there is room, {@code DROP} discards the new element, {@code DOWNSAMPLE} discards the new element and, from
+ * then on, accepts only one every {@code k} elements, with {@code k} doubling at each overflow and halving when the
+ * buffer gets back below one quarter of its capacity.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class RingBuffer<T> {
+
+  public enum OverflowPolicy {
+    BLOCK, DROP, DOWNSAMPLE
+  }
+
+  private final static long PARK_NANOS = 100000;
+
+  private final AtomicReferenceArray<T> buffer;
+  private final int capacity;
+  private final int mask;
+  private final OverflowPolicy policy;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong maxSize = new AtomicLong();
+
+  //only accessed by the producer
+  private int stride = 1;
+  private long strideCounter = 0;
+
+  public RingBuffer(int capacity, OverflowPolicy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException(String.format("Capacity must be positive: %d", capacity));
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    int size = Integer.highestOneBit(capacity);
+    size = (size < capacity) ? (size << 1) : size;
+    buffer = new AtomicReferenceArray<>(size);
+    mask = size - 1;
+  }
+
+  public boolean offer(T t) {
+    long currentTail = tail.get();
+    long currentSize = currentTail - head.get();
+    if (currentSize >= capacity) {
+      return false;
+    }
+    buffer.lazySet((int) (currentTail & mask), t);
+    tail.lazySet(currentTail + 1);
+    if (currentSize + 1 > maxSize.get()) {
+      maxSize.lazySet(currentSize + 1);
+    }
+    return true;
+  }
+
+  public boolean put(T t) {
+    if (policy.equals(OverflowPolicy.BLOCK)) {
+      while (!offer(t)) {
+        LockSupport.parkNanos(PARK_NANOS);
+        if (Thread.currentThread().isInterrupted()) {
+          discarded.incrementAndGet();
+          return false;
+        }
+      }
+      return true;
+    }
+    if (policy.equals(OverflowPolicy.DOWNSAMPLE)) {
+      if ((stride > 1) && (4 * size() < capacity)) {
+        stride = stride / 2;
+      }
+      strideCounter = strideCounter + 1;
+      if (strideCounter % stride != 0) {
+        discarded.incrementAndGet();
+        return false;
+      }
+    }
+    if (!offer(t)) {
+      if (policy.equals(OverflowPolicy.DOWNSAMPLE)) {
+        stride = stride * 2;
+      }
+      discarded.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  public T poll() {
+    long currentHead = head.get();
+    if (currentHead >= tail.get()) {
+      return null;
+    }
+    int index = (int) (currentHead & mask);
+    T t = buffer.get(index);
+    buffer.lazySet(index, null);
+    head.lazySet(currentHead + 1);
+    return t;
+  }
+
+  public T peek() {
+    long currentHead = head.get();
+    if (currentHead >= tail.get()) {
+      return null;
+    }
+    return buffer.get((int) (currentHead & mask));
+  }
+
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  public long getMaxSize() {
+    return maxSize.get();
+  }
+
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("size=%d/%d max=%d discarded=%d", size(), capacity, getMaxSize(), getDiscarded());
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accumulates the time spent in each phase of the simulation steps of one episode.
+ * <p>
+ * Timings are taken with {@link System#nanoTime()} and accumulated in preallocated arrays, hence profiling does not
+ * allocate. Consecutive phases share the reading of the clock: {@link #stop(Phase, long)} returns the time at which
+ * the phase ended, which can be used as the start of the next one:
+ * <pre>{@code
+ * long nanos = profiler.start();
+ * world.step(1);
+ * nanos = profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+ * }</pre>
+ * The {@link #DISABLED} profiler does not read the clock and does not record anything, not even what is {@link
+ * #add(StepProfiler) added} to it, since it is shared by all the tasks which are not profiled. A profiler is meant to be used
+ * by one thread: profiles of several episodes can be merged with {@link #add(StepProfiler)}.
+ * <p>
+ * When built with {@code measureAllocations} set, the profiler also accumulates the bytes allocated in each phase by
+ * the thread which invoked the last {@link #start()}, which may be different from the one which built the profiler,
+ * as reported by {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}. The
+ * bytes allocated by the measurement itself are estimated once and subtracted, so that a phase which does not allocate
+ * reports (about) zero bytes. Allocations which happen between the end of a phase and the {@link #start()} of the next
+ * one are not accounted. If the JVM does not support the measurement, only timings are recorded. Profilers obtained
+ * with {@link #build()}, as those of the tasks, measure allocations if the {@value #ALLOCATIONS_PROPERTY} system
+ * property is {@code true}.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class StepProfiler {
+
+  public enum Phase {
+    PHYSICS, SENSING, CONTROL, FORCES, GROUND, SNAPSHOT, LISTENER
+  }
+
+  private static final Logger L = Logger.getLogger(StepProfiler.class.getName());
+
+  public final static String ALLOCATIONS_PROPERTY = "hmsrobots.profiler.allocations";
+
+  private final static Phase[] PHASES = Phase.values();
+
+  public final static StepProfiler DISABLED = new StepProfiler(false, false);
+
+  private final boolean enabled;
+  private final long[] nanos;
+  private final long[] counts;
+  private final long[] bytes;
+  private final com.sun.management.ThreadMXBean threadMXBean;
+  private final long measurementBytes;
+  private long threadId;
+  private long startBytes;
+  private long steps;
+  private long voxelSteps;
+  private double simulatedSeconds;
+
+  public StepProfiler() {
+    this(true, false);
+  }
+
+  public StepProfiler(boolean measureAllocations) {
+    this(true, measureAllocations);
+  }
+
+  private StepProfiler(boolean enabled, boolean measureAllocations) {
+    this.enabled = enabled;
+    nanos = new long[PHASES.length];
+    counts = new long[PHASES.length];
+    bytes = new long[PHASES.length];
+    threadMXBean = measureAllocations ? allocationMXBean() : null;
+    threadId = Thread.currentThread().getId();
+    //the cost of the measurement does not depend on the thread
+    measurementBytes = (threadMXBean != null) ? estimateMeasurementBytes() : 0L;
+  }
+
+  public static StepProfiler build() {
+    return new StepProfiler(Boolean.getBoolean(ALLOCATIONS_PROPERTY));
+  }
+
+  private static com.sun.management.ThreadMXBean allocationMXBean() {
+    try {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if ((bean instanceof com.sun.management.ThreadMXBean)
+          && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+        if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+          allocationBean.setThreadAllocatedMemoryEnabled(true);
+        }
+        return allocationBean;
+      }
+    } catch (UnsupportedOperationException | SecurityException e) {
+      L.log(Level.WARNING, String.format("Cannot enable allocation measurement: %s", e));
+      return null;
+    }
+    L.warning("Allocation measurement is not supported by this JVM");
+    return null;
+  }
+
+  //the minimum over a few attempts of the bytes allocated by reading the allocated bytes
+  private long estimateMeasurementBytes() {
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < 10; i++) {
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      long after = threadMXBean.getThreadAllocatedBytes(threadId);
+      min = Math.min(min, after - before);
+    }
+    return Math.max(0L, min);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isMeasuringAllocations() {
+    return threadMXBean != null;
+  }
+
+  public long start() {
+    if (!enabled) {
+      return 0L;
+    }
+    if (threadMXBean != null) {
+      threadId = Thread.currentThread().getId();
+      startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+    }
+    return System.nanoTime();
+  }
+
+  public long stop(Phase phase, long startNanos) {
+    if (!enabled) {
+      return 0L;
+    }
+    long nowNanos = System.nanoTime();
+    nanos[phase.ordinal()] = nanos[phase.ordinal()] + (nowNanos - startNanos);
+    counts[phase.ordinal()] = counts[phase.ordinal()] + 1;
+    if (threadMXBean != null) {
+      long nowBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+      bytes[phase.ordinal()] = bytes[phase.ordinal()] + Math.max(0L, nowBytes - startBytes - measurementBytes);
+      startBytes = nowBytes;
+    }
+    return nowNanos;
+  }
+
+  public void step(double dT, int nOfVoxels) {
+    if (enabled) {
+      steps = steps + 1;
+      voxelSteps = voxelSteps + nOfVoxels;
+      simulatedSeconds = simulatedSeconds + dT;
+    }
+  }
+
+  public void add(StepProfiler other) {
+    if (!enabled) {
+      return;
+    }
+    for (int i = 0; i < PHASES.length; i++) {
+      nanos[i] = nanos[i] + other.nanos[i];
+      counts[i] = counts[i] + other.counts[i];
+      bytes[i] = bytes[i] + other.bytes[i];
+    }
+    steps = steps + other.steps;
+    voxelSteps = voxelSteps + other.voxelSteps;
+    simulatedSeconds = simulatedSeconds + other.simulatedSeconds;
+  }
+
+  public long getSteps() {
+    return steps;
+  }
+
+  public long getVoxelSteps() {
+    return voxelSteps;
+  }
+
+  public double getSimulatedSeconds() {
+    return simulatedSeconds;
+  }
+
+  public long getCount(Phase phase) {
+    return counts[phase.ordinal()];
+  }
+
+  public double getSeconds(Phase phase) {
+    return (double) nanos[phase.ordinal()] / 1e9d;
+  }
+
+  /**
+   * Returns the bytes allocated in the given phase, which are always 0 if this profiler does not measure
+   * allocations.
+   */
+  public long getBytes(Phase phase) {
+    return bytes[phase.ordinal()];
+  }
+
+  public double getBytesPerStep(Phase phase) {
+    return (steps > 0) ? ((double) bytes[phase.ordinal()] / (double) steps) : 0d;
+  }
+
+  public long getTotalBytes() {
+    long totalBytes = 0;
+    for (long phaseBytes : bytes) {
+      totalBytes = totalBytes + phaseBytes;
+    }
+    return totalBytes;
+  }
+
+  public double getTotalSeconds() {
+    long totalNanos = 0;
+    for (long phaseNanos : nanos) {
+      totalNanos = totalNanos + phaseNanos;
+    }
+    return (double) totalNanos / 1e9d;
+  }
+
+  /**
+   * Returns the profile as a flat map, suitable for being exported as a row of a table, with keys like {@code
+   * physics.seconds} and {@code physics.count}; if allocations are measured, also with keys like {@code
+   * physics.bytes} and {@code physics.bytesPerStep}.
+   */
+  public Map<String, Number> toMap() {
+    Map<String, Number> map = new LinkedHashMap<>();
+    map.put("steps", steps);
+    map.put("voxelSteps", voxelSteps);
+    map.put("simulatedSeconds", simulatedSeconds);
+    for (Phase phase : PHASES) {
+      map.put(phase.name().toLowerCase() + ".seconds", getSeconds(phase));
+      map.put(phase.name().toLowerCase() + ".count", getCount(phase));
+      if (threadMXBean != null) {
+        map.put(phase.name().toLowerCase() + ".bytes", getBytes(phase));
+        map.put(phase.name().toLowerCase() + ".bytesPerStep", getBytesPerStep(phase));
+      }
+    }
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(String.format("steps=%d", steps));
+    double totalSeconds = getTotalSeconds();
+    for (Phase phase : PHASES) {
+      sb.append(String.format(
+          " %s=%.3fs(%.0f%%)",
+          phase.name().toLowerCase(),
+          getSeconds(phase),
+          (totalSeconds > 0d) ? (100d * getSeconds(phase) / totalSeconds) : 0d
+      ));
+      if (threadMXBean != null) {
+        sb.append(String.format("[%.0fB/step]", getBytesPerStep(phase)));
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Monotonically increasing metric, which can be updated concurrently without contention.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class Counter extends Metric {
+
+  private final DoubleAdder value = new DoubleAdder();
+
+  Counter(String name, String help) {
+    super(name, help);
+  }
+
+  public void inc() {
+    value.add(1d);
+  }
+
+  public void add(double amount) {
+    if (amount < 0d) {
+      throw new IllegalArgumentException(String.format("Counters cannot decrease: %f", amount));
+    }
+    value.add(amount);
+  }
+
+  public double get() {
+    return value.sum();
+  }
+
+  @Override
+  protected String getType() {
+    return "counter";
+  }
+
+  @Override
+  protected void writeSamples(Appendable appendable) throws IOException {
+    appendable.append(getName()).append(' ').append(format(get())).append('\n');
+  }
+
+}
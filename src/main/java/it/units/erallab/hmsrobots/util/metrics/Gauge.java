@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.IOException;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metric whose value is read, when exported, from a supplier, e.g., the size of a queue.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class Gauge extends Metric {
+
+  private final DoubleSupplier supplier;
+
+  Gauge(String name, String help, DoubleSupplier supplier) {
+    super(name, help);
+    this.supplier = supplier;
+  }
+
+  public double get() {
+    return supplier.getAsDouble();
+  }
+
+  @Override
+  protected String getType() {
+    return "gauge";
+  }
+
+  @Override
+  protected void writeSamples(Appendable appendable) throws IOException {
+    appendable.append(getName()).append(' ').append(format(get())).append('\n');
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of positive values with log-linear buckets, as in HDR histograms: each power of 2 between {@link
+ * #MIN_EXPONENT} and {@link #MAX_EXPONENT} is split in {@link #SUB_BUCKETS} buckets of equal width, hence the
+ * relative error on each value is at most {@code 1/SUB_BUCKETS}. Values are recorded without locks and in constant
+ * time, and the memory taken by the histogram does not depend on the number of values.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class Histogram extends Metric {
+
+  public final static int MIN_EXPONENT = -20;
+  public final static int MAX_EXPONENT = 50;
+  public final static int SUB_BUCKETS = 4;
+
+  private final static int N_OF_BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(N_OF_BUCKETS + 1);
+  private final LongAdder count = new LongAdder();
+  private final DoubleAdder sum = new DoubleAdder();
+
+  Histogram(String name, String help) {
+    super(name, help);
+  }
+
+  public void observe(double value) {
+    counts.incrementAndGet(bucketIndex(value));
+    count.increment();
+    sum.add(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public double getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * Returns an approximation of the quantile {@code q}, i.e., the upper bound of the bucket containing it.
+   */
+  public double quantile(double q) {
+    long target = (long) Math.ceil(q * (double) getCount());
+    long cumulated = 0;
+    for (int i = 0; i <= N_OF_BUCKETS; i++) {
+      cumulated = cumulated + counts.get(i);
+      if ((cumulated >= target) && (cumulated > 0)) {
+        return upperBound(i);
+      }
+    }
+    return Double.NaN;
+  }
+
+  //values lower than the first bound go in the first bucket, values larger than the last bound in the overflow one
+  private static int bucketIndex(double value) {
+    if (!(value >= Math.scalb(1d, MIN_EXPONENT))) {
+      return 0;
+    }
+    int exponent = Math.getExponent(value);
+    if (exponent >= MAX_EXPONENT) {
+      return N_OF_BUCKETS;
+    }
+    int subBucket = (int) ((Math.scalb(value, -exponent) - 1d) * SUB_BUCKETS);
+    return (exponent - MIN_EXPONENT) * SUB_BUCKETS + Math.min(subBucket, SUB_BUCKETS - 1);
+  }
+
+  private static double upperBound(int index) {
+    if (index >= N_OF_BUCKETS) {
+      return Double.POSITIVE_INFINITY;
+    }
+    int exponent = MIN_EXPONENT + index / SUB_BUCKETS;
+    return Math.scalb(1d + (double) (index % SUB_BUCKETS + 1) / (double) SUB_BUCKETS, exponent);
+  }
+
+  @Override
+  protected String getType() {
+    return "histogram";
+  }
+
+  //buckets are cumulative and all exported, also when empty, so that every scrape has the same series of bounds
+  @Override
+  protected void writeSamples(Appendable appendable) throws IOException {
+    long cumulated = 0;
+    for (int i = 0; i < N_OF_BUCKETS; i++) {
+      cumulated = cumulated + counts.get(i);
+      appendable.append(getName()).append("_bucket{le=\"").append(format(upperBound(i))).append("\"} ").append(Long.toString(cumulated)).append('\n');
+    }
+    cumulated = cumulated + counts.get(N_OF_BUCKETS);
+    appendable.append(getName()).append("_bucket{le=\"+Inf\"} ").append(Long.toString(cumulated)).append('\n');
+    appendable.append(getName()).append("_sum ").append(format(getSum())).append('\n');
+    appendable.append(getName()).append("_count ").append(Long.toString(cumulated)).append('\n');
+  }
+
+}
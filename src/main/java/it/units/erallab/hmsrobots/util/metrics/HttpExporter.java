@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the metrics of a registry, in the Prometheus text exposition format, at {@code /metrics} on a local HTTP
+ * server. The metrics are read only when scraped. By default, the server is bound to the loopback address: to expose
+ * the metrics to other hosts, the address to bind to has to be given explicitly.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class HttpExporter implements Closeable {
+
+  public final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final MetricsRegistry registry;
+  private final HttpServer server;
+
+  public HttpExporter(MetricsRegistry registry, int port) throws IOException {
+    this(registry, InetAddress.getLoopbackAddress(), port);
+  }
+
+  public HttpExporter(MetricsRegistry registry, InetAddress address, int port) throws IOException {
+    this.registry = registry;
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+    server.createContext("/metrics", this::serve);
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    byte[] body = registry.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.IOException;
+
+/**
+ * One named metric of a {@link MetricsRegistry}.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public abstract class Metric {
+
+  private final String name;
+  private final String help;
+
+  protected Metric(String name, String help) {
+    if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+      throw new IllegalArgumentException(String.format("Invalid metric name: %s", name));
+    }
+    this.name = name;
+    this.help = help;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getHelp() {
+    return help;
+  }
+
+  /**
+   * Returns the type of the metric in the Prometheus text exposition format.
+   */
+  protected abstract String getType();
+
+  /**
+   * Writes the samples of the metric, without the {@code HELP} and {@code TYPE} lines, in the Prometheus text
+   * exposition format.
+   */
+  protected abstract void writeSamples(Appendable appendable) throws IOException;
+
+  protected static String format(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return (value > 0) ? "+Inf" : "-Inf";
+    }
+    if ((value == Math.rint(value)) && (Math.abs(value) < 1e15)) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Named collection of metrics which can be shared by many threads and exported in the Prometheus text exposition
+ * format. Metrics are created on the first request of their name and then reused.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class MetricsRegistry {
+
+  private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+  public Counter counter(String name, String help) {
+    return get(name, n -> new Counter(n, help), Counter.class);
+  }
+
+  public Histogram histogram(String name, String help) {
+    return get(name, n -> new Histogram(n, help), Histogram.class);
+  }
+
+  public Gauge gauge(String name, String help, DoubleSupplier supplier) {
+    return get(name, n -> new Gauge(n, help, supplier), Gauge.class);
+  }
+
+  public Map<String, Metric> getMetrics() {
+    return metrics;
+  }
+
+  private <M extends Metric> M get(String name, Function<String, M> builder, Class<M> metricClass) {
+    Metric metric = metrics.computeIfAbsent(name, builder);
+    if (!metricClass.isInstance(metric)) {
+      throw new IllegalArgumentException(String.format(
+          "Metric %s is a %s, not a %s",
+          name, metric.getClass().getSimpleName(), metricClass.getSimpleName()
+      ));
+    }
+    return metricClass.cast(metric);
+  }
+
+  public void write(Appendable appendable) throws IOException {
+    for (Metric metric : metrics.values()) {
+      if (metric.getHelp() != null) {
+        appendable.append("# HELP ").append(metric.getName()).append(' ')
+            .append(metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+      }
+      appendable.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+      metric.writeSamples(appendable);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      write(sb);
+    } catch (IOException ex) {
+      //cannot happen with a StringBuilder
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically overwrites a text file with the metrics of a registry, in the Prometheus text exposition format (hence
+ * the file can also be collected by a textfile collector). For each counter, a comment line reports its rate per
+ * second since the previous export.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class TextFileExporter implements Closeable {
+
+  private final MetricsRegistry registry;
+  private final File file;
+  private final File tempFile;
+  private final ScheduledFuture<?> future;
+  private final Map<String, Double> lastValues;
+
+  private long lastNanos;
+
+  private static final Logger L = Logger.getLogger(TextFileExporter.class.getName());
+
+  public TextFileExporter(MetricsRegistry registry, File file, long periodMillis, ScheduledExecutorService executor) {
+    this.registry = registry;
+    this.file = file.getAbsoluteFile();
+    tempFile = new File(this.file.getParentFile(), "." + this.file.getName() + ".tmp");
+    lastValues = new HashMap<>();
+    lastNanos = System.nanoTime();
+    future = executor.scheduleAtFixedRate(() -> {
+      try {
+        export();
+      } catch (IOException ex) {
+        L.log(Level.WARNING, String.format("Cannot export metrics due to %s", ex), ex);
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void export() throws IOException {
+    long nanos = System.nanoTime();
+    double elapsedSeconds = (double) (nanos - lastNanos) / 1e9d;
+    lastNanos = nanos;
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+      registry.write(writer);
+      for (Metric metric : registry.getMetrics().values()) {
+        if (metric instanceof Counter) {
+          double value = ((Counter) metric).get();
+          Double lastValue = lastValues.put(metric.getName(), value);
+          if ((lastValue != null) && (elapsedSeconds > 0d)) {
+            writer.write(String.format("# rate %s %.3f/s%n", metric.getName(), (value - lastValue) / elapsedSeconds));
+          }
+        }
+      }
+    }
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public void close() throws IOException {
+    future.cancel(false);
+    export();
+  }
+
+}
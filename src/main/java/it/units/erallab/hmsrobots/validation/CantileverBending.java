@@ -27,10 +27,12 @@ import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.StepProfiler;
 import it.units.erallab.hmsrobots.viewers.SnapshotListener;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.lang3.tuple.Pair;
 import org.dyn4j.dynamics.Settings;
 import org.dyn4j.dynamics.World;
 import org.dyn4j.dynamics.joint.WeldJoint;
@@ -51,6 +53,8 @@ import java.util.stream.Collectors;
  */
 public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, CantileverBending.Result> {
 
+  private static final Logger L = Logger.getLogger(CantileverBending.class.getName());
+
   public static class Result {
 
     private final double realTime;
@@ -67,8 +71,9 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
     private final double yDisplacement;
     private final Map<String, List<Double>> timeEvolution;
     private final List<Point2> finalTopPositions;
+    private final StepProfiler profile;
 
-    public Result(double realTime, double dampingRealTime, double dampingSimTime, long steps, long dampingSteps, double dampingVoxelStepsPerSecond, double dampingVoxelSimSecondsPerSecond, double dampingStepsPerSecond, double overallVoxelStepsPerSecond, double overallVoxelSimSecondsPerSecond, double overallStepsPerSecond, double yDisplacement, Map<String, List<Double>> timeEvolution, List<Point2> finalTopPositions) {
+    public Result(double realTime, double dampingRealTime, double dampingSimTime, long steps, long dampingSteps, double dampingVoxelStepsPerSecond, double dampingVoxelSimSecondsPerSecond, double dampingStepsPerSecond, double overallVoxelStepsPerSecond, double overallVoxelSimSecondsPerSecond, double overallStepsPerSecond, double yDisplacement, Map<String, List<Double>> timeEvolution, List<Point2> finalTopPositions, StepProfiler profile) {
       this.realTime = realTime;
       this.dampingRealTime = dampingRealTime;
       this.dampingSimTime = dampingSimTime;
@@ -83,6 +88,7 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
       this.yDisplacement = yDisplacement;
       this.timeEvolution = timeEvolution;
       this.finalTopPositions = finalTopPositions;
+      this.profile = profile;
     }
 
     public double getRealTime() {
@@ -141,6 +147,10 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
       return finalTopPositions;
     }
 
+    public StepProfiler getProfile() {
+      return profile;
+    }
+
   }
 
   private final static double WALL_MARGIN = 10d;
@@ -195,10 +205,13 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
     List<Double> simTs = new ArrayList<>((int) Math.round(finalT / settings.getStepFrequency()));
     double y0 = robot.getVoxels().get(robot.getVoxels().getW() - 1, robot.getVoxels().getH() / 2).getCenter().y;
     //simulate
+    StepProfiler profiler = StepProfiler.build();
+    int nOfVoxels = (int) robot.getVoxels().count(v -> v != null);
     Stopwatch stopwatch = Stopwatch.createStarted();
     double t = 0d;
     while (t < finalT) {
       //add force
+      long nanos = profiler.start();
       if (t <= forceDuration) {
         for (int y = 0; y < robot.getVoxels().getH(); y++) {
           for (int i : new int[]{1, 2}) {
@@ -206,12 +219,17 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
           }
         }
       }
+      nanos = profiler.stop(StepProfiler.Phase.FORCES, nanos);
       //do step
       t = t + settings.getStepFrequency();
       world.step(1);
+      nanos = profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+      profiler.step(settings.getStepFrequency(), nOfVoxels);
       if (listener != null) {
         Snapshot snapshot = new Snapshot(t, worldObjects.stream().map(WorldObject::immutable).collect(Collectors.toList()));
+        nanos = profiler.stop(StepProfiler.Phase.SNAPSHOT, nanos);
         listener.listen(snapshot);
+        profiler.stop(StepProfiler.Phase.LISTENER, nanos);
       }
       //get position
       double y = robot.getVoxels().get(robot.getVoxels().getW() - 1, robot.getVoxels().getH() / 2).getCenter().y;
@@ -253,13 +271,19 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
         (double) realTs.size() / elapsedSeconds,
         finalTopPositions.get(finalTopPositions.size() - 1).y,
         timeEvolution,
-        finalTopPositions
+        finalTopPositions,
+        profiler
     );
   }
 
+  /**
+   * Runs the sweep of voxel and physics parameters on all the available cores. Rows with the outcome of each
+   * configuration are written to the standard output as soon as the configuration is evaluated; if a file name is
+   * given as first argument, time evolutions are appended to that file as well, one configuration at a time.
+   */
   public static void main(String[] args) throws FileNotFoundException {
     ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-    PrintStream timeEvolutionPS = null; //new PrintStream("/home/eric/experiments/2dhmsr/cantilever-time-evolutions.csv");
+    PrintStream timeEvolutionPS = (args.length > 0) ? new PrintStream(args[0]) : null;
     List<Grid<Boolean>> shapes = Lists.newArrayList(
             Grid.create(15, 4),
             Grid.create(10, 4),
@@ -282,49 +306,49 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
             EnumSet.of(Voxel.SpringScaffolding.SIDE_EXTERNAL, Voxel.SpringScaffolding.SIDE_INTERNAL, Voxel.SpringScaffolding.SIDE_CROSS),
             EnumSet.of(Voxel.SpringScaffolding.SIDE_EXTERNAL, Voxel.SpringScaffolding.CENTRAL_CROSS)
     ));
-    Map<String, List> timeEvolutionMap = new HashMap<>();
-    List<Future<Map<String, Object>>> futures = new ArrayList<>();
+    CompletionService<Pair<Map<String, Object>, Result>> completionService = new ExecutorCompletionService<>(executor);
+    int submitted = 0;
     for (Grid<Boolean> shape : shapes) {
       for (Map.Entry<String, List<Object>> param : params.entrySet()) {
         for (Object paramValue : param.getValue()) {
           //build basic settings and builder
           final Map<String, Object> configurations = new HashMap<>();
           configurations.put("settings", new Settings());
-          //configurations.put("builder", Voxel.Builder.create()); //TODO fix with configuration
+          configurations.put("builder", Voxel.Description.build());
           //set all properties to the first value in the list
           for (Map.Entry<String, Object> configuration : configurations.entrySet()) {
             params.entrySet().stream().filter(e -> e.getKey().startsWith(configuration.getKey() + ".")).forEach((Map.Entry<String, List<Object>> e) -> {
               try {
-                PropertyUtils.setProperty(
+                RobotControl.setProperty(
                         configuration.getValue(),
                         e.getKey().replace(configuration.getKey() + ".", ""),
                         e.getValue().get(0)
                 );
               } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException ex) {
-                System.out.printf("Cannot set property '%s' of '%s' due to: %s%n", e.getKey(), configuration.getKey(), ex);
+                L.warning(String.format("Cannot set property '%s' of '%s' due to: %s", e.getKey(), configuration.getKey(), ex));
               }
             });
           }
           //set param value
           try {
-            PropertyUtils.setProperty(
+            RobotControl.setProperty(
                     configurations.get(param.getKey().split("\\.")[0]),
                     param.getKey().split("\\.")[1],
                     paramValue
             );
           } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException ex) {
-            System.out.printf("Cannot set property '%s' to %s due to: %s%n", param.getKey(), paramValue, ex);
+            L.warning(String.format("Cannot set property '%s' to %s due to: %s", param.getKey(), paramValue, ex));
           }
           //set static keys
           final Map<String, Object> staticKeys = new LinkedHashMap<>();
           staticKeys.put("shape", shape.getW() + "x" + shape.getH());
           //set static keys to the first value in the list
-          staticKeys.putAll(params.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get(0))));
+          params.forEach((k, vs) -> staticKeys.put(k, vs.get(0)));
           //set static key of the current param
           staticKeys.put(param.getKey(), paramValue);
           //submit jobs
-          futures.add(executor.submit(() -> {
-            System.out.printf("Started\t%s%n", staticKeys);
+          completionService.submit(() -> {
+            L.fine(String.format("Started\t%s", staticKeys));
             CantileverBending cb = new CantileverBending(
                 30d,
                 0.1d,
@@ -333,80 +357,78 @@ public class CantileverBending extends AbstractTask<Grid<Voxel.Description>, Can
                 (Settings) configurations.get("settings")
             );
             Result result = cb.apply(Grid.create(shape.getW(), shape.getH(), (Voxel.Description) configurations.get("builder")));
-            System.out.printf("Ended\t%s%n", staticKeys);
-            Map<String, Object> row = new LinkedHashMap<>();
-            row.putAll(staticKeys);
-            if (timeEvolutionPS != null) {
-              int length = result.getTimeEvolution().values().stream().mapToInt(List::size).max().orElse(0);
-              Map<String, List> enhancedTimeEvolution = new LinkedHashMap<>(result.getTimeEvolution());
-              enhancedTimeEvolution.putAll(staticKeys.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, o -> Collections.nCopies(length, o.getValue()))));
-              synchronized (timeEvolutionMap) {
-                for (Map.Entry<String, List> entry : enhancedTimeEvolution.entrySet()) {
-                  List values = timeEvolutionMap.get(entry.getKey());
-                  if (values == null) {
-                    values = new ArrayList();
-                    timeEvolutionMap.put(entry.getKey(), values);
-                  }
-                  values.addAll(entry.getValue());
-                }
-              }
-            }
-            row.putAll(PropertyUtils.describe(result)
-                    .entrySet()
-                    .stream()
-                    .filter(e -> e.getValue() instanceof Number)
-                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
-            );
-            return row;
-          }));
+            L.fine(String.format("Ended\t%s", staticKeys));
+            return Pair.of(staticKeys, result);
+          });
+          submitted = submitted + 1;
         }
       }
     }
-    //get results
-    List<Map<String, Object>> rows = futures.stream().map(f -> {
-      try {
-        return f.get();
-      } catch (InterruptedException | ExecutionException ex) {
-        System.out.printf("Cannot get result due to: %s%n", ex);
-      }
-      return null;
-    }).collect(Collectors.toList());
     executor.shutdown();
-    //write table and finish
+    //write rows and time evolutions as soon as they are available
+    CSVPrinter printer = null;
+    List<String> header = null;
+    CSVPrinter timeEvolutionPrinter = null;
+    List<String> timeEvolutionHeader = null;
     try {
-      CSVPrinter printer = new CSVPrinter(System.out, CSVFormat.DEFAULT.withHeader(rows.get(0).keySet().toArray(new String[0])));
-      for (Map<String, Object> row : rows) {
-        printer.printRecord(row.values().toArray());
+      for (int i = 0; i < submitted; i++) {
+        Pair<Map<String, Object>, Result> outcome;
+        try {
+          outcome = completionService.take().get();
+        } catch (ExecutionException ex) {
+          L.log(Level.SEVERE, "Cannot get result", ex);
+          continue;
+        }
+        Map<String, Object> row = new LinkedHashMap<>(outcome.getLeft());
+        PropertyUtils.describe(outcome.getRight()).entrySet().stream()
+            .filter(e -> e.getValue() instanceof Number)
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(e -> row.put(e.getKey(), e.getValue()));
+        row.putAll(outcome.getRight().getProfile().toMap());
+        if (printer == null) {
+          header = new ArrayList<>(row.keySet());
+          printer = new CSVPrinter(System.out, CSVFormat.DEFAULT.withHeader(header.toArray(new String[0])));
+        }
+        printer.printRecord(header.stream().map(row::get).toArray());
+        printer.flush();
+        if (timeEvolutionPS != null) {
+          Map<String, List> timeEvolution = new LinkedHashMap<>(outcome.getLeft().size() + outcome.getRight().getTimeEvolution().size());
+          int length = outcome.getRight().getTimeEvolution().values().stream().mapToInt(List::size).max().orElse(0);
+          outcome.getLeft().forEach((k, v) -> timeEvolution.put(k, Collections.nCopies(length, v)));
+          timeEvolution.putAll(outcome.getRight().getTimeEvolution());
+          if (timeEvolutionPrinter == null) {
+            timeEvolutionHeader = new ArrayList<>(timeEvolution.keySet());
+            timeEvolutionPrinter = new CSVPrinter(timeEvolutionPS, CSVFormat.DEFAULT.withHeader(timeEvolutionHeader.toArray(new String[0])));
+          }
+          printCSV(timeEvolution, timeEvolutionHeader, timeEvolutionPrinter);
+        }
+      }
+    } catch (InterruptedException ex) {
+      L.log(Level.SEVERE, "Interrupted while waiting for results", ex);
+      executor.shutdownNow();
+    } catch (IOException | IllegalAccessException | InvocationTargetException | NoSuchMethodException ex) {
+      L.log(Level.SEVERE, "Cannot print CSV", ex);
+      executor.shutdownNow();
+    } finally {
+      if (timeEvolutionPS != null) {
+        timeEvolutionPS.close();
       }
-      printer.flush();
-      printer.close();
-    } catch (IOException ex) {
-      Logger.getLogger(RobotControl.class.getName()).log(Level.SEVERE, "Cannot print CSV", ex);
-    }
-    //write time evolutions
-    if (timeEvolutionPS != null) {
-      printCSV(timeEvolutionMap, timeEvolutionPS);
     }
   }
 
-  private static void printCSV(Map<String, List> data, PrintStream ps) {
+  private static void printCSV(Map<String, List> data, List<String> names, CSVPrinter printer) throws IOException {
     int length = data.values().stream().mapToInt(List::size).max().orElse(0);
-    String[] names = data.keySet().toArray(new String[data.keySet().size()]);
-    try {
-      CSVPrinter printer = new CSVPrinter(ps, CSVFormat.DEFAULT.withHeader(names));
-      for (int i = 0; i < length; i++) {
-        Object[] values = new Object[names.length];
-        for (int j = 0; j < names.length; j++) {
-          List<?> currentValues = data.get(names[j]);
-          if (currentValues.size() > i) {
-            values[j] = currentValues.get(i);
-          }
+    for (int i = 0; i < length; i++) {
+      Object[] values = new Object[names.size()];
+      for (int j = 0; j < names.size(); j++) {
+        List<?> currentValues = data.get(names.get(j));
+        if ((currentValues != null) && (currentValues.size() > i)) {
+          values[j] = currentValues.get(i);
         }
-        printer.printRecord(values);
       }
-    } catch (IOException ex) {
-      Logger.getLogger(CantileverBending.class.getName()).log(Level.SEVERE, "Cannot print CSV", ex);
+      printer.printRecord(values);
     }
+    printer.flush();
   }
 
 }
@@ -26,8 +26,10 @@ import it.units.erallab.hmsrobots.objects.WorldObject;
 import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 import it.units.erallab.hmsrobots.tasks.AbstractTask;
+import it.units.erallab.hmsrobots.util.Configurable;
 import it.units.erallab.hmsrobots.util.Grid;
 import it.units.erallab.hmsrobots.util.SerializableFunction;
+import it.units.erallab.hmsrobots.util.StepProfiler;
 import it.units.erallab.hmsrobots.viewers.SnapshotListener;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.csv.CSVFormat;
@@ -58,8 +60,9 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
     private final double overallStepsPerSecond;
     private final double avgBrokenRatio;
     private final double maxVelocityMagnitude;
+    private final StepProfiler profile;
 
-    public Result(double realTime, long steps, double overallVoxelStepsPerSecond, double overallVoxelSimSecondsPerSecond, double overallStepsPerSecond, double avgBrokenRatio, double maxVelocityMagnitude) {
+    public Result(double realTime, long steps, double overallVoxelStepsPerSecond, double overallVoxelSimSecondsPerSecond, double overallStepsPerSecond, double avgBrokenRatio, double maxVelocityMagnitude, StepProfiler profile) {
       this.realTime = realTime;
       this.steps = steps;
       this.overallVoxelStepsPerSecond = overallVoxelStepsPerSecond;
@@ -67,6 +70,7 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
       this.overallStepsPerSecond = overallStepsPerSecond;
       this.avgBrokenRatio = avgBrokenRatio;
       this.maxVelocityMagnitude = maxVelocityMagnitude;
+      this.profile = profile;
     }
 
     public double getRealTime() {
@@ -97,6 +101,10 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
       return maxVelocityMagnitude;
     }
 
+    public StepProfiler getProfile() {
+      return profile;
+    }
+
   }
 
   private final static int GROUND_HILLS_N = 100;
@@ -164,19 +172,27 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
     double maxVelocityMagnitude = Double.NEGATIVE_INFINITY;
     double sumOfBrokenRatio = 0d;
     //simulate
+    StepProfiler profiler = StepProfiler.build();
+    int nOfVoxels = (int) robot.getVoxels().count(v -> v != null);
     Stopwatch stopwatch = Stopwatch.createStarted();
     double t = 0d;
     long steps = 0;
     while (t < finalT) {
       //do step
       t = t + settings.getStepFrequency();
+      long nanos = profiler.start();
       world.step(1);
+      profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+      profiler.step(settings.getStepFrequency(), nOfVoxels);
       steps = steps + 1;
       //control
-      robot.act(t);
+      robot.act(t, profiler);
       if (listener != null) {
+        nanos = profiler.start();
         Snapshot snapshot = new Snapshot(t, worldObjects.stream().map(WorldObject::immutable).collect(Collectors.toList()));
+        nanos = profiler.stop(StepProfiler.Phase.SNAPSHOT, nanos);
         listener.listen(snapshot);
+        profiler.stop(StepProfiler.Phase.LISTENER, nanos);
       }
       //collect data
       for (Grid.Entry<Voxel> entry : robot.getVoxels()) {
@@ -196,12 +212,12 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
         (double) robot.getVoxels().count(v -> v != null) * finalT / elapsedSeconds,
         (double) steps / elapsedSeconds,
         sumOfBrokenRatio / (double) robot.getVoxels().count(v -> v != null) / (double) steps,
-        maxVelocityMagnitude
+        maxVelocityMagnitude,
+        profiler
     );
   }
 
   public static void main(String[] args) {
-    //TODO fix for using description
     ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
     List<Grid<Boolean>> shapes = new ArrayList<>();
     int iterations = 5;
@@ -233,12 +249,12 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
             //build basic settings and builder
             final Map<String, Object> configurations = new HashMap<>();
             configurations.put("settings", new Settings());
-            //configurations.put("builder", Voxel.Builder.create()); //TODO fix!
+            configurations.put("builder", Voxel.Description.build());
             //set all properties to the first value in the list
             for (Map.Entry<String, Object> configuration : configurations.entrySet()) {
               params.entrySet().stream().filter(e -> e.getKey().startsWith(configuration.getKey() + ".")).forEach((Map.Entry<String, List<Object>> e) -> {
                 try {
-                  PropertyUtils.setProperty(
+                  setProperty(
                       configuration.getValue(),
                       e.getKey().replace(configuration.getKey() + ".", ""),
                       e.getValue().get(0)
@@ -250,7 +266,7 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
             }
             //set param value
             try {
-              PropertyUtils.setProperty(
+              setProperty(
                   configurations.get(param.getKey().split("\\.")[0]),
                   param.getKey().split("\\.")[1],
                   paramValue
@@ -281,6 +297,7 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
                   .filter(e -> e.getValue() instanceof Number)
                   .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))
               );
+              row.putAll(result.getProfile().toMap());
               return row;
             }));
           }
@@ -310,4 +327,13 @@ public class RobotControl extends AbstractTask<Grid<Voxel.Description>, RobotCon
     }
   }
 
+  //voxel descriptions have no setters: their configurable fields are set directly
+  static void setProperty(Object target, String name, Object value) throws IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+    if (target instanceof Configurable) {
+      ((Configurable<?>) target).setConfigurable(name, value);
+    } else {
+      PropertyUtils.setProperty(target, name, value);
+    }
+  }
+
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.validation;
+
+import it.units.erallab.hmsrobots.controllers.CentralizedMLP;
+import it.units.erallab.hmsrobots.controllers.Controller;
+import it.units.erallab.hmsrobots.controllers.DistributedMLP;
+import it.units.erallab.hmsrobots.controllers.TimeFunctions;
+import it.units.erallab.hmsrobots.objects.Robot;
+import it.units.erallab.hmsrobots.objects.Voxel;
+import it.units.erallab.hmsrobots.sensors.AreaRatio;
+import it.units.erallab.hmsrobots.sensors.Touch;
+import it.units.erallab.hmsrobots.sensors.Velocity;
+import it.units.erallab.hmsrobots.tasks.Locomotion;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.Parametrized;
+import it.units.erallab.hmsrobots.util.SerializableFunction;
+import it.units.erallab.hmsrobots.util.StepProfiler;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.dyn4j.dynamics.Settings;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how the cost of {@link Locomotion} episodes scales with the size of the robot, the spring scaffoldings of
+ * its voxels, the terrain, the controller, and the step frequency of the physics engine.
+ * <p>
+ * Each factor has a list of values, the first being the default. For each shape, each other factor is varied in turn
+ * while keeping the remaining ones at their default, and each combination is run {@code iterations} times. All the
+ * robots have the same sensors and the weights of the MLP controllers are drawn from a {@link Random} with the given
+ * seed, hence the sweep is reproducible. One CSV row per episode is written as soon as the episode ends, in submission
+ * order, with the simulation throughput (steps, voxel steps, and simulated seconds per wall-clock second), the bytes
+ * allocated by the thread running the episode, the heap in use at the end of the episode, and the per-phase profile.
+ * <p>
+ * Usage: {@code java it.units.erallab.hmsrobots.validation.ScalingBenchmark [output=<file>|-] [threads=<n>]
+ * [finalT=<s>] [iterations=<n>] [warmup=<n>] [seed=<n>] [<factor>=<value>,<value>,...]}, where factors are {@code
+ * shape} (as {@code WxH}), {@code scaffoldings} (as {@code +}-separated {@link Voxel.SpringScaffolding} names),
+ * {@code terrain} (as accepted by {@link Locomotion#createTerrain(String)} or {@link Locomotion#createGround(String)}),
+ * {@code controller} ({@code
+ * TimeFunctions}, {@code CentralizedMLP}, or {@code DistributedMLP}), and {@code stepFrequency}. Since episodes
+ * running in parallel compete for caches and memory bandwidth, throughput figures are meaningful for capacity planning
+ * only with the same number of threads as in production.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class ScalingBenchmark {
+
+  private static final Logger L = Logger.getLogger(ScalingBenchmark.class.getName());
+
+  private final static String SHAPE = "shape";
+  private final static String SCAFFOLDINGS = "scaffoldings";
+  private final static String TERRAIN = "terrain";
+  private final static String CONTROLLER = "controller";
+  private final static String STEP_FREQUENCY = "stepFrequency";
+
+  private final double finalT;
+  private final long seed;
+
+  public ScalingBenchmark(double finalT, long seed) {
+    this.finalT = finalT;
+    this.seed = seed;
+  }
+
+  public static Map<String, List<String>> defaultFactors() {
+    Map<String, List<String>> factors = new LinkedHashMap<>();
+    factors.put(SHAPE, List.of("5x5", "2x2", "3x3", "8x8", "10x10", "15x15", "20x20", "10x3", "20x3"));
+    factors.put(SCAFFOLDINGS, List.of(
+        "SIDE_EXTERNAL+SIDE_INTERNAL+SIDE_CROSS+CENTRAL_CROSS",
+        "SIDE_EXTERNAL+SIDE_INTERNAL+CENTRAL_CROSS",
+        "SIDE_EXTERNAL+SIDE_INTERNAL+SIDE_CROSS",
+        "SIDE_EXTERNAL+CENTRAL_CROSS"
+    ));
+    factors.put(TERRAIN, List.of("flat", "uneven5", "uneven10"));
+    factors.put(CONTROLLER, List.of("TimeFunctions", "CentralizedMLP", "DistributedMLP"));
+    factors.put(STEP_FREQUENCY, List.of("0.016666666666666666", "0.005", "0.01", "0.02", "0.025"));
+    return factors;
+  }
+
+  /**
+   * Returns the combinations of factor values to be run: all the values of {@code shape}, each crossed with all the
+   * values of one other factor at a time, the remaining factors being at their default (first) value.
+   */
+  public static List<Map<String, String>> combinations(Map<String, List<String>> factors) {
+    Map<String, String> defaults = new LinkedHashMap<>();
+    factors.forEach((k, vs) -> defaults.put(k, vs.get(0)));
+    Set<Map<String, String>> combinations = new LinkedHashSet<>();
+    for (String shape : factors.get(SHAPE)) {
+      for (Map.Entry<String, List<String>> factor : factors.entrySet()) {
+        if (factor.getKey().equals(SHAPE)) {
+          continue;
+        }
+        for (String value : factor.getValue()) {
+          Map<String, String> combination = new LinkedHashMap<>(defaults);
+          combination.put(SHAPE, shape);
+          combination.put(factor.getKey(), value);
+          combinations.add(Collections.unmodifiableMap(combination));
+        }
+      }
+    }
+    return new ArrayList<>(combinations);
+  }
+
+  public Robot.Description description(Map<String, String> combination) {
+    String[] size = combination.get(SHAPE).split("x");
+    int w = Integer.parseInt(size[0]);
+    int h = Integer.parseInt(size[1]);
+    EnumSet<Voxel.SpringScaffolding> scaffoldings = EnumSet.noneOf(Voxel.SpringScaffolding.class);
+    for (String name : combination.get(SCAFFOLDINGS).split("\\+")) {
+      scaffoldings.add(Voxel.SpringScaffolding.valueOf(name.trim()));
+    }
+    Grid<Voxel.Description> body = Grid.create(w, h, (x, y) -> {
+      Voxel.Description d = Voxel.Description.build().setConfigurable("springScaffoldings", EnumSet.copyOf(scaffoldings));
+      if (y == 0) {
+        d.getSensors().add(new Touch());
+      }
+      if (y == h - 1) {
+        d.getSensors().add(new Velocity(true, 2d * d.getSideLength(), Velocity.Axis.X, Velocity.Axis.Y));
+      }
+      d.getSensors().add(new AreaRatio());
+      return d;
+    });
+    Controller controller;
+    switch (combination.get(CONTROLLER)) {
+      case "TimeFunctions":
+        controller = new TimeFunctions(Grid.create(w, h, (x, y) -> (SerializableFunction<Double, Double>) t -> Math.sin(-2d * Math.PI * t + 2d * Math.PI * (double) x / (double) w)));
+        break;
+      case "CentralizedMLP":
+        controller = new CentralizedMLP(body, new int[]{w * h}, t -> Math.sin(-2d * Math.PI * t));
+        break;
+      case "DistributedMLP":
+        controller = new DistributedMLP(body, new int[0], 1);
+        break;
+      default:
+        throw new IllegalArgumentException(String.format("Unknown controller %s", combination.get(CONTROLLER)));
+    }
+    if (controller instanceof Parametrized) {
+      Random random = new Random(seed);
+      double[] params = ((Parametrized) controller).getParams();
+      for (int i = 0; i < params.length; i++) {
+        params[i] = random.nextDouble() * 2d - 1d;
+      }
+      ((Parametrized) controller).setParams(params);
+    }
+    return new Robot.Description(body, controller);
+  }
+
+  /**
+   * Runs one episode with the given combination of factor values in the current thread and returns its row.
+   */
+  public Map<String, Object> run(Map<String, String> combination) {
+    Settings settings = new Settings();
+    settings.setStepFrequency(Double.parseDouble(combination.get(STEP_FREQUENCY)));
+    double[][] terrain = Locomotion.createTerrain(combination.get(TERRAIN));
+    Locomotion locomotion = (terrain != null) ? new Locomotion(
+        finalT,
+        terrain,
+        List.of(Locomotion.Metric.TRAVEL_X_VELOCITY),
+        settings
+    ) : new Locomotion(
+        finalT,
+        Locomotion.createGround(combination.get(TERRAIN)),
+        List.of(Locomotion.Metric.TRAVEL_X_VELOCITY),
+        0d,
+        settings,
+        false
+    );
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    boolean allocationMeasured = (threadMXBean instanceof com.sun.management.ThreadMXBean)
+        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()
+        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled();
+    long threadId = Thread.currentThread().getId();
+    long startingBytes = allocationMeasured ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) : 0L;
+    long startingNanos = System.nanoTime();
+    StepProfiler profiler = new StepProfiler();
+    List<Double> outcome = locomotion.apply(description(combination), null, profiler);
+    double seconds = (double) (System.nanoTime() - startingNanos) / 1e9d;
+    long bytes = allocationMeasured ? (((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) - startingBytes) : -1L;
+    Map<String, Object> row = new LinkedHashMap<>(combination);
+    row.put("nVoxels", profiler.getSteps() > 0 ? profiler.getVoxelSteps() / profiler.getSteps() : 0L);
+    row.put("travelXVelocity", outcome.get(0));
+    row.put("realTime", seconds);
+    row.put("stepsPerSecond", (double) profiler.getSteps() / seconds);
+    row.put("voxelStepsPerSecond", (double) profiler.getVoxelSteps() / seconds);
+    row.put("simSecondsPerSecond", profiler.getSimulatedSeconds() / seconds);
+    row.put("allocatedBytes", bytes);
+    row.put("allocatedBytesPerStep", (bytes >= 0 && profiler.getSteps() > 0) ? ((double) bytes / (double) profiler.getSteps()) : -1d);
+    row.put("usedHeapBytes", Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    row.putAll(profiler.toMap());
+    return row;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> arguments = new HashMap<>();
+    for (String arg : args) {
+      String[] pieces = arg.split("=", 2);
+      arguments.put(pieces[0], pieces.length > 1 ? pieces[1] : "");
+    }
+    Map<String, List<String>> factors = defaultFactors();
+    for (String factor : factors.keySet()) {
+      if (arguments.containsKey(factor)) {
+        factors.put(factor, Arrays.stream(arguments.get(factor).split(",")).map(String::trim).collect(Collectors.toList()));
+      }
+    }
+    int threads = Integer.parseInt(arguments.getOrDefault("threads", "1"));
+    int iterations = Integer.parseInt(arguments.getOrDefault("iterations", "1"));
+    int warmup = Integer.parseInt(arguments.getOrDefault("warmup", "1"));
+    ScalingBenchmark benchmark = new ScalingBenchmark(
+        Double.parseDouble(arguments.getOrDefault("finalT", "30")),
+        Long.parseLong(arguments.getOrDefault("seed", "1"))
+    );
+    List<Map<String, String>> combinations = combinations(factors);
+    //warm up the jit with the default combination, discarding results
+    for (int i = 0; i < warmup; i++) {
+      benchmark.run(combinations.get(0));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Map<String, Object>>> futures = new ArrayList<>();
+    for (Map<String, String> combination : combinations) {
+      for (int iteration = 0; iteration < iterations; iteration++) {
+        final int localIteration = iteration;
+        futures.add(executor.submit(() -> {
+          Map<String, Object> row = new LinkedHashMap<>();
+          row.put("iteration", localIteration);
+          row.putAll(benchmark.run(combination));
+          return row;
+        }));
+      }
+    }
+    L.info(String.format("%d episodes submitted on %d threads", futures.size(), threads));
+    String output = arguments.getOrDefault("output", "-");
+    CSVPrinter printer = null;
+    try (Writer writer = output.equals("-") ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8) : new FileWriter(output, StandardCharsets.UTF_8)) {
+      for (Future<Map<String, Object>> future : futures) {
+        Map<String, Object> row;
+        try {
+          row = future.get();
+        } catch (InterruptedException | ExecutionException ex) {
+          L.log(Level.SEVERE, "Cannot run episode", ex);
+          continue;
+        }
+        if (printer == null) {
+          printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(row.keySet().toArray(new String[0])));
+        }
+        printer.printRecord(row.values());
+        printer.flush();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
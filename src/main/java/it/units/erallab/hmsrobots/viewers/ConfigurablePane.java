@@ -90,22 +90,33 @@ public class ConfigurablePane extends JPanel {
   private final Map<String, List<MutablePair<Object, Boolean>>> collectionValues = new LinkedHashMap<>();
 
   public ConfigurablePane(Configurable<?> configurable) {
+    this(configurable, () -> {
+    });
+  }
+
+  //changed is run after any change of configurable, including changes of the configurables it contains
+  private ConfigurablePane(Configurable<?> configurable, Runnable changed) {
     //set general properties
     setLayout(new BoxLayout(this, BoxLayout.PAGE_AXIS));
     setBorder(BorderFactory.createEtchedBorder(EtchedBorder.LOWERED));
     //add things
     add(new JLabel(configurable.getClass().getSimpleName()));
     for (String key : configurable.configurables(ConfigurableField.Type.BASIC, ConfigurableField.Type.ADVANCED)) {
-      add(forAny(key, configurable));
+      add(forAny(key, configurable, changed));
     }
   }
 
-  private JComponent forAny(String key, Configurable<?> configurable) {
+  private JComponent forAny(String key, Configurable<?> configurable, Runnable changed) {
+    //a change of a contained configurable is notified to configurable by setting again the same value of key
+    Runnable innerChanged = () -> {
+      configurable.setConfigurable(key, configurable.getConfigurable(key));
+      changed.run();
+    };
     Object value = configurable.getConfigurable(key);
     if (value == null) {
       return new JLabel(key + " (null)");
     } else if (value instanceof Configurable) {
-      return new ConfigurablePane((Configurable<?>) value);
+      return new ConfigurablePane((Configurable<?>) value, innerChanged);
     } else if (value instanceof Number) {
       double num = ((Number) value).doubleValue();
       final Class<? extends Number> type = ((Number) value).getClass();
@@ -121,18 +132,25 @@ public class ConfigurablePane extends JPanel {
       slider.setMinorTickSpacing(10);
       slider.setPaintTicks(true);
       slider.setPreferredSize(new Dimension(100, 40));
-      slider.addChangeListener(e -> configurable.setConfigurable(
-          key,
-          number(slider.getValue() / 100d * (max - min) + min, type)));
+      slider.addChangeListener(e -> {
+        configurable.setConfigurable(key, number(slider.getValue() / 100d * (max - min) + min, type));
+        changed.run();
+      });
       return justified(new JLabel(key), null, slider);
     } else if (value instanceof Color) {
       ColorChooserButton button = new ColorChooserButton((Color) value);
-      button.addColorChangedListener(c -> configurable.setConfigurable(key, c));
+      button.addColorChangedListener(c -> {
+        configurable.setConfigurable(key, c);
+        changed.run();
+      });
       return justified(new JLabel(key), null, button);
     } else if (value instanceof Boolean) {
       JCheckBox checkBox = new JCheckBox();
       checkBox.setSelected(((Boolean) value).booleanValue());
-      checkBox.addActionListener(c -> configurable.setConfigurable(key, checkBox.isSelected()));
+      checkBox.addActionListener(c -> {
+        configurable.setConfigurable(key, checkBox.isSelected());
+        changed.run();
+      });
       return justified(new JLabel(key), null, checkBox);
     } else if (value instanceof Collection) {
       List<MutablePair<Object, Boolean>> pairs;
@@ -165,9 +183,10 @@ public class ConfigurablePane extends JPanel {
                   .collect(Collectors.toList()),
               collection
           ));
+          changed.run();
         });
         if (pair.getKey() instanceof Configurable) {
-          elementsPanel.add(justified(new ConfigurablePane((Configurable) pair.getKey()), checkBox));
+          elementsPanel.add(justified(new ConfigurablePane((Configurable<?>) pair.getKey(), innerChanged), checkBox));
         } else {
           elementsPanel.add(justified(new JLabel(pair.getKey().toString()), null, checkBox));
         }
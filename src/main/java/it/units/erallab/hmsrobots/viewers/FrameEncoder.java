@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import org.jcodec.api.transcode.SinkImpl;
+import org.jcodec.codecs.h264.H264Encoder;
+import org.jcodec.common.Codec;
+import org.jcodec.common.Format;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.VideoEncoder;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Picture;
+import org.jcodec.common.model.Rational;
+import org.jcodec.common.model.Size;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * H264/MP4 encoder of {@link BufferedImage}s of type {@link BufferedImage#TYPE_3BYTE_BGR}.
+ * <p>
+ * Differently than {@link org.jcodec.api.awt.AWTSequenceEncoder}, which builds a new RGB {@link Picture} for each
+ * image and then transforms it to YUV, images are converted directly from their BGR raster to the YUV 4:2:0 (full
+ * range) pictures expected by the codec, which are reused: pictures are allocated only when no free one is available,
+ * up to one segment being filled and one being encoded by each thread.
+ * <p>
+ * Frames are grouped in segments of {@link #SEGMENT_LENGTH} frames, i.e., one group of pictures: each segment is
+ * encoded by a new {@link H264Encoder}, hence it starts with a key frame and does not depend on the other segments.
+ * Segments are encoded concurrently on an internal pool of threads (by default, at most {@link #DEFAULT_N_OF_THREADS})
+ * and their packets are put in the MP4 container in the original order. Methods of this class are not thread-safe:
+ * they are meant to be invoked by one thread.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class FrameEncoder {
+
+  public final static int SEGMENT_LENGTH = 25;
+  public final static int DEFAULT_N_OF_THREADS = 2;
+
+  private static class EncodedFrame {
+    private final ByteBuffer data;
+    private final boolean keyFrame;
+
+    public EncodedFrame(ByteBuffer data, boolean keyFrame) {
+      this.data = data;
+      this.keyFrame = keyFrame;
+    }
+  }
+
+  private final SinkImpl sink;
+  private final Rational fps;
+  private final VideoCodecMeta meta;
+  private final ExecutorService executor;
+  private final int w;
+  private final int h;
+  private final int maxNOfPictures;
+  private final BlockingQueue<Picture> freePictures;
+  private final Deque<Future<List<EncodedFrame>>> segments;
+  private final ThreadLocal<ByteBuffer> buffers;
+
+  private List<Picture> currentSegment;
+  private int nOfPictures;
+  private int frameNo;
+
+  public FrameEncoder(SeekableByteChannel channel, Rational fps, int w, int h) throws IOException {
+    this(channel, fps, w, h, Math.min(DEFAULT_N_OF_THREADS, Runtime.getRuntime().availableProcessors()));
+  }
+
+  public FrameEncoder(SeekableByteChannel channel, Rational fps, int w, int h, int nOfThreads) throws IOException {
+    if ((w % 2 != 0) || (h % 2 != 0)) {
+      throw new IllegalArgumentException(String.format("Frame size must be even: %dx%d", w, h));
+    }
+    this.fps = fps;
+    this.w = w;
+    this.h = h;
+    sink = SinkImpl.createWithStream(channel, Format.MOV, Codec.H264, null);
+    sink.initMuxer();
+    meta = VideoCodecMeta.createSimpleVideoCodecMeta(new Size(w, h), ColorSpace.YUV420J);
+    nOfThreads = Math.max(1, nOfThreads);
+    executor = Executors.newFixedThreadPool(nOfThreads, r -> {
+      Thread thread = new Thread(r, "segment-encoder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    //one segment being filled, one being encoded by each thread
+    maxNOfPictures = (nOfThreads + 1) * SEGMENT_LENGTH;
+    freePictures = new ArrayBlockingQueue<>(maxNOfPictures);
+    nOfPictures = 0;
+    segments = new ArrayDeque<>();
+    buffers = new ThreadLocal<>();
+    currentSegment = new ArrayList<>(SEGMENT_LENGTH);
+    frameNo = 0;
+  }
+
+  public void encodeImage(BufferedImage image) throws IOException {
+    if ((image.getType() != BufferedImage.TYPE_3BYTE_BGR) || (image.getWidth() != w) || (image.getHeight() != h)) {
+      throw new IllegalArgumentException(String.format(
+          "Unexpected image: type=%d size=%dx%d",
+          image.getType(), image.getWidth(), image.getHeight()
+      ));
+    }
+    Picture picture = freePicture();
+    toYUV420(((DataBufferByte) image.getRaster().getDataBuffer()).getData(), picture);
+    currentSegment.add(picture);
+    if (currentSegment.size() == SEGMENT_LENGTH) {
+      submitCurrentSegment();
+    }
+    //mux segments which are already encoded
+    while (!segments.isEmpty() && segments.peekFirst().isDone()) {
+      mux(segments.pollFirst());
+    }
+  }
+
+  public void finish() throws IOException {
+    if (!currentSegment.isEmpty()) {
+      submitCurrentSegment();
+    }
+    while (!segments.isEmpty()) {
+      mux(segments.pollFirst());
+    }
+    executor.shutdown();
+    sink.finish();
+  }
+
+  public int getFrameNo() {
+    return frameNo;
+  }
+
+  private Picture freePicture() throws IOException {
+    Picture picture = freePictures.poll();
+    if (picture != null) {
+      return picture;
+    }
+    if (nOfPictures < maxNOfPictures) {
+      nOfPictures = nOfPictures + 1;
+      return Picture.create(w, h, ColorSpace.YUV420J);
+    }
+    try {
+      return freePictures.take();
+    } catch (InterruptedException ex) {
+      throw new IOException("Interrupted while waiting for a free picture", ex);
+    }
+  }
+
+  private void submitCurrentSegment() {
+    final List<Picture> pictures = currentSegment;
+    currentSegment = new ArrayList<>(SEGMENT_LENGTH);
+    segments.addLast(executor.submit(() -> encodeSegment(pictures)));
+  }
+
+  private List<EncodedFrame> encodeSegment(List<Picture> pictures) {
+    H264Encoder encoder = H264Encoder.createH264Encoder();
+    encoder.setKeyInterval(SEGMENT_LENGTH);
+    List<EncodedFrame> encodedFrames = new ArrayList<>(pictures.size());
+    try {
+      for (Picture picture : pictures) {
+        ByteBuffer buffer = buffers.get();
+        int size = encoder.estimateBufferSize(picture);
+        if ((buffer == null) || (buffer.capacity() < size)) {
+          buffer = ByteBuffer.allocate(size);
+          buffers.set(buffer);
+        }
+        buffer.clear();
+        VideoEncoder.EncodedFrame encodedFrame = encoder.encodeFrame(picture, buffer);
+        encodedFrames.add(new EncodedFrame(NIOUtils.clone(encodedFrame.getData()), encodedFrame.isKeyFrame()));
+      }
+    } finally {
+      freePictures.addAll(pictures);
+    }
+    return encodedFrames;
+  }
+
+  private void mux(Future<List<EncodedFrame>> segment) throws IOException {
+    List<EncodedFrame> encodedFrames;
+    try {
+      encodedFrames = segment.get();
+    } catch (InterruptedException | ExecutionException ex) {
+      throw new IOException("Cannot encode segment", ex);
+    }
+    for (EncodedFrame encodedFrame : encodedFrames) {
+      Packet packet = Packet.createPacket(
+          encodedFrame.data,
+          (long) frameNo * fps.getDen(), fps.getNum(), fps.getDen(),
+          frameNo,
+          encodedFrame.keyFrame ? Packet.FrameType.KEY : Packet.FrameType.INTER,
+          null
+      );
+      sink.outputVideoPacket(packet, meta);
+      frameNo = frameNo + 1;
+    }
+  }
+
+  //same fixed point coefficients and clipping of org.jcodec.scale.RgbToYuv420j, which clips chroma for each pixel
+  //before averaging; values are stored in jcodec pictures minus 128
+  static void toYUV420(byte[] bgr, Picture picture) {
+    int w = picture.getWidth();
+    int h = picture.getHeight();
+    byte[] yPlane = picture.getPlaneData(0);
+    byte[] uPlane = picture.getPlaneData(1);
+    byte[] vPlane = picture.getPlaneData(2);
+    int rowStride = 3 * w;
+    int c = 0;
+    for (int y = 0; y < h; y = y + 2) {
+      for (int x = 0; x < w; x = x + 2) {
+        int u = 0;
+        int v = 0;
+        for (int dy = 0; dy < 2; dy++) {
+          for (int dx = 0; dx < 2; dx++) {
+            int i = (y + dy) * rowStride + 3 * (x + dx);
+            int b = bgr[i] & 0xFF;
+            int g = bgr[i + 1] & 0xFF;
+            int r = bgr[i + 2] & 0xFF;
+            yPlane[(y + dy) * w + x + dx] = (byte) (clip((77 * r + 150 * g + 15 * b + 128) >> 8) - 128);
+            u = u + clip((-43 * r - 85 * g + 128 * b + 128) >> 8, -128, 127);
+            v = v + clip((128 * r - 107 * g - 21 * b + 128) >> 8, -128, 127);
+          }
+        }
+        uPlane[c] = (byte) ((u + 2) >> 2);
+        vPlane[c] = (byte) ((v + 2) >> 2);
+        c = c + 1;
+      }
+    }
+  }
+
+  private static int clip(int value) {
+    return clip(value, 0, 255);
+  }
+
+  private static int clip(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+}
@@ -87,10 +87,10 @@ public class FramesFileWriter implements Flushable, SnapshotListener {
 
   @Override
   public void listen(final Snapshot snapshot) {
-    BoundingBox worldFrame = framer.getFrame(snapshot, (double) w / (double) h);
     if ((snapshot.getTime() < initialT) || (snapshot.getTime() >= finalT)) { //out of time window
       return;
     }
+    BoundingBox worldFrame = framer.getFrame(snapshot, (double) w / (double) h);
     if ((lastSnapshot != null) && ((snapshot.getTime() - lastSnapshot.getTime()) < dT)) { //wait for next snapshot
       return;
     }
@@ -23,13 +23,10 @@ import it.units.erallab.hmsrobots.util.ConfigurableField;
 import it.units.erallab.hmsrobots.viewers.drawers.*;
 
 import java.awt.*;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Line2D;
-import java.awt.geom.Path2D;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
 import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
@@ -67,6 +64,47 @@ public class GraphicsDrawer implements Configurable<GraphicsDrawer> {
       GenericSensor.build()
   ));
 
+  @ConfigurableField
+  private boolean staticLayerCached = false;
+  @ConfigurableField(uiMin = 0, uiMax = 50)
+  private double detailVoxelPixels = 12d;
+  @ConfigurableField(uiMin = 0, uiMax = 50)
+  private double outlineVoxelPixels = 4d;
+  @ConfigurableField
+  private Color outlineFillColor = alphaed(Color.YELLOW, 0.5f);
+
+  private volatile long configurationVersion;
+
+  private final Map<Class<?>, Optional<Drawer>> drawerTable = new HashMap<>();
+  private final List<Drawer> drawerTableDrawers = new ArrayList<>();
+  private final Map<Rectangle, StaticLayer> staticLayers = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Rectangle, StaticLayer> eldest) {
+      return size() > MAX_STATIC_LAYERS;
+    }
+  };
+
+  private final static int MAX_STATIC_LAYERS = 16;
+  private final static double SCALE_STEPS_PER_OCTAVE = 32d;
+
+  //background, grid, and leading static objects of one region of the graphics, with the configuration they were drawn with
+  private static class StaticLayer {
+    private final Rectangle bounds;
+    private BufferedImage image;
+    private BufferedImage spareImage;
+    private List<ImmutableObject> lastObjects = Collections.emptyList();
+    private List<ImmutableObject> objects;
+    private boolean drawn;
+    private long configurationVersion;
+    private double ratio;
+    private int originX;
+    private int originY;
+
+    public StaticLayer(Rectangle bounds) {
+      this.bounds = bounds;
+    }
+  }
+
   private GraphicsDrawer() {
   }
 
@@ -74,66 +112,84 @@ public class GraphicsDrawer implements Configurable<GraphicsDrawer> {
     return new GraphicsDrawer();
   }
 
+  //changes of the drawers are notified by setting again the drawers field, as ConfigurablePane does
+  @Override
+  public GraphicsDrawer setConfigurable(String key, Object value) {
+    Configurable.super.setConfigurable(key, value);
+    configurationVersion = configurationVersion + 1;
+    return this;
+  }
+
   public void draw(Snapshot snapshot, Graphics2D g, BoundingBox graphicsFrame, BoundingBox worldFrame, String... infos) {
     //set clipping area
-    g.setClip(
+    Rectangle bounds = new Rectangle(
         (int) graphicsFrame.min.x, (int) graphicsFrame.min.y,
         (int) (graphicsFrame.max.x - graphicsFrame.min.x), (int) (graphicsFrame.max.y - graphicsFrame.min.y)
     );
+    g.setClip(bounds.x, bounds.y, bounds.width, bounds.height);
+    //reset the drawer of each class, if drawers changed
+    if (!drawerTableDrawers.equals(drawers)) {
+      drawerTable.clear();
+      drawerTableDrawers.clear();
+      drawerTableDrawers.addAll(drawers);
+    }
     //save original transform
     AffineTransform oAt = g.getTransform();
     //prepare transformation
     double xRatio = (graphicsFrame.max.x - graphicsFrame.min.x) / (worldFrame.max.x - worldFrame.min.x);
     double yRatio = (graphicsFrame.max.y - graphicsFrame.min.y) / (worldFrame.max.y - worldFrame.min.y);
     double ratio = Math.min(xRatio, yRatio);
-    AffineTransform at = new AffineTransform();
-    at.translate(graphicsFrame.min.x, graphicsFrame.min.y);
-    at.scale(ratio, -ratio);
-    at.translate(-worldFrame.min.x, -worldFrame.max.y);
-    //draw background
-    g.setColor(backgroundColor);
-    g.fillRect(
-        (int) graphicsFrame.min.x, (int) graphicsFrame.min.y,
-        (int) (graphicsFrame.max.x - graphicsFrame.min.x), (int) (graphicsFrame.max.y - graphicsFrame.min.y)
-    );
-    //draw grid
-    g.setTransform(at);
-    if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MAJOR) || generalRenderingModes.contains(GeneralRenderingMode.GRID_MINOR)) {
-      g.setColor(gridColor);
-      g.setStroke(new BasicStroke(1f / (float) ratio));
-      double gridSize = computeGridSize(worldFrame.min.x, worldFrame.max.x);
-      if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MAJOR)) {
-        for (double gridX = Math.floor(worldFrame.min.x / gridSize) * gridSize; gridX < worldFrame.max.x; gridX = gridX + gridSize) {
-          g.draw(new Line2D.Double(gridX, worldFrame.min.y, gridX, worldFrame.max.y));
-        }
-        for (double gridY = Math.floor(worldFrame.min.y / gridSize) * gridSize; gridY < worldFrame.max.y; gridY = gridY + gridSize) {
-          g.draw(new Line2D.Double(worldFrame.min.x, gridY, worldFrame.max.x, gridY));
-        }
+    List<ImmutableObject> objects = (snapshot.getObjects() instanceof List) ? (List<ImmutableObject>) snapshot.getObjects() : new ArrayList<>(snapshot.getObjects());
+    List<ImmutableObject> dynamicObjects = objects;
+    AffineTransform at;
+    if (staticLayerCached && isIntegerTranslation(oAt) && (bounds.width > 0) && (bounds.height > 0)) {
+      //snap the scale to discrete steps and the translation to pixels, so that the static layer can be reused
+      ratio = Math.pow(2d, Math.floor(Math.log(ratio) / Math.log(2d) * SCALE_STEPS_PER_OCTAVE) / SCALE_STEPS_PER_OCTAVE);
+      int originX = (int) Math.round(graphicsFrame.min.x - bounds.x - worldFrame.min.x * ratio);
+      int originY = (int) Math.round(graphicsFrame.min.y - bounds.y + worldFrame.max.y * ratio);
+      StaticLayer layer = staticLayers.computeIfAbsent(bounds, StaticLayer::new);
+      List<ImmutableObject> staticObjects = staticPrefix(objects, layer.lastObjects);
+      layer.lastObjects = objects;
+      if (layer.drawn) {
+        //the region has already been drawn at least once: use a layer
+        updateStaticLayer(layer, g, ratio, originX, originY, staticObjects);
+        g.drawImage(layer.image, bounds.x, bounds.y, null);
+        dynamicObjects = objects.subList(staticObjects.size(), objects.size());
+      } else {
+        layer.drawn = true;
+        drawBackground(g, bounds);
       }
-      if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MINOR)) {
-        gridSize = gridSize / 5d;
-        g.setStroke(new BasicStroke(
-            1f / (float) ratio,
-            BasicStroke.CAP_BUTT,
-            BasicStroke.JOIN_ROUND,
-            1.0f,
-            new float[]{2f / (float) ratio, 0f, 2f / (float) ratio},
-            0f));
-        for (double gridX = Math.floor(worldFrame.min.x / gridSize) * gridSize; gridX < worldFrame.max.x; gridX = gridX + gridSize) {
-          g.draw(new Line2D.Double(gridX, worldFrame.min.y, gridX, worldFrame.max.y));
-        }
-        for (double gridY = Math.floor(worldFrame.min.y / gridSize) * gridSize; gridY < worldFrame.max.y; gridY = gridY + gridSize) {
-          g.draw(new Line2D.Double(worldFrame.min.x, gridY, worldFrame.max.x, gridY));
-        }
+      at = new AffineTransform();
+      at.translate(bounds.x + originX, bounds.y + originY);
+      at.scale(ratio, -ratio);
+      at.preConcatenate(oAt);
+      if (dynamicObjects == objects) {
+        g.setTransform(at);
+        BoundingBox visibleWorld = visibleWorld(at, bounds, oAt);
+        drawGrid(g, visibleWorld, computeGridSize(visibleWorld.min.x, visibleWorld.max.x), ratio);
       }
+    } else {
+      at = new AffineTransform();
+      at.translate(graphicsFrame.min.x, graphicsFrame.min.y);
+      at.scale(ratio, -ratio);
+      at.translate(-worldFrame.min.x, -worldFrame.max.y);
+      at.preConcatenate(oAt);
+      drawBackground(g, bounds);
+      g.setTransform(at);
+      drawGrid(g, worldFrame, computeGridSize(worldFrame.min.x, worldFrame.max.x), ratio);
     }
     //draw components
+    g.setTransform(at);
     List<Point2> compoundCenters = new ArrayList<>();
     Stroke basicStroke = new BasicStroke(strokeWidth / (float) ratio);
-    for (ImmutableObject object : snapshot.getObjects()) {
-      recursivelyDraw(object, g, basicStroke);
+    for (ImmutableObject object : dynamicObjects) {
+      recursivelyDraw(object, g, basicStroke, ratio);
+    }
+    for (ImmutableObject object : objects) {
       if (generalRenderingModes.contains(GeneralRenderingMode.VOXEL_COMPOUND_CENTERS_INFO)) {
-        if (object.getObjectClass().equals(Robot.class)) {
+        if (object instanceof ImmutableRobot) {
+          compoundCenters.add(((ImmutableRobot) object).getCenter());
+        } else if (object.getObjectClass().equals(Robot.class)) {
           Point2[] centers = new Point2[object.getChildren().size()];
           centers = object.getChildren().stream().map(o -> o.getShape().center()).collect(Collectors.toList()).toArray(centers);
           compoundCenters.add(Point2.average(centers));
@@ -171,6 +227,146 @@ public class GraphicsDrawer implements Configurable<GraphicsDrawer> {
     }
   }
 
+  private void drawBackground(Graphics2D g, Rectangle bounds) {
+    g.setColor(backgroundColor);
+    g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+  }
+
+  private void drawGrid(Graphics2D g, BoundingBox worldFrame, double gridSize, double ratio) {
+    if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MAJOR) || generalRenderingModes.contains(GeneralRenderingMode.GRID_MINOR)) {
+      g.setColor(gridColor);
+      g.setStroke(new BasicStroke(1f / (float) ratio));
+      if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MAJOR)) {
+        for (double gridX = Math.floor(worldFrame.min.x / gridSize) * gridSize; gridX < worldFrame.max.x; gridX = gridX + gridSize) {
+          g.draw(new Line2D.Double(gridX, worldFrame.min.y, gridX, worldFrame.max.y));
+        }
+        for (double gridY = Math.floor(worldFrame.min.y / gridSize) * gridSize; gridY < worldFrame.max.y; gridY = gridY + gridSize) {
+          g.draw(new Line2D.Double(worldFrame.min.x, gridY, worldFrame.max.x, gridY));
+        }
+      }
+      if (generalRenderingModes.contains(GeneralRenderingMode.GRID_MINOR)) {
+        gridSize = gridSize / 5d;
+        g.setStroke(new BasicStroke(
+            1f / (float) ratio,
+            BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_ROUND,
+            1.0f,
+            new float[]{2f / (float) ratio, 0f, 2f / (float) ratio},
+            0f));
+        for (double gridX = Math.floor(worldFrame.min.x / gridSize) * gridSize; gridX < worldFrame.max.x; gridX = gridX + gridSize) {
+          g.draw(new Line2D.Double(gridX, worldFrame.min.y, gridX, worldFrame.max.y));
+        }
+        for (double gridY = Math.floor(worldFrame.min.y / gridSize) * gridSize; gridY < worldFrame.max.y; gridY = gridY + gridSize) {
+          g.draw(new Line2D.Double(worldFrame.min.x, gridY, worldFrame.max.x, gridY));
+        }
+      }
+    }
+  }
+
+  private void updateStaticLayer(StaticLayer layer, Graphics2D g, double ratio, int originX, int originY, List<ImmutableObject> staticObjects) {
+    int w = layer.bounds.width;
+    int h = layer.bounds.height;
+    long version = configurationVersion;
+    boolean sameContent = (layer.image != null) && (layer.ratio == ratio) && (version == layer.configurationVersion) && sameObjects(staticObjects, layer.objects);
+    int dX = originX - layer.originX;
+    int dY = originY - layer.originY;
+    if (sameContent && (dX == 0) && (dY == 0)) {
+      return;
+    }
+    if (layer.image == null) {
+      layer.image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+      layer.spareImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    }
+    layer.ratio = ratio;
+    layer.configurationVersion = version;
+    layer.objects = staticObjects;
+    layer.originX = originX;
+    layer.originY = originY;
+    AffineTransform at = new AffineTransform();
+    at.translate(originX, originY);
+    at.scale(ratio, -ratio);
+    //the grid size depends on the whole layer, not on the region being drawn
+    BoundingBox layerWorld = visibleWorld(at, new Rectangle(0, 0, w, h), new AffineTransform());
+    double gridSize = computeGridSize(layerWorld.min.x, layerWorld.max.x);
+    if (sameContent && (Math.abs(dX) < w) && (Math.abs(dY) < h)) {
+      //pan: shift the previous content and draw only the exposed regions
+      Graphics2D lg = layer.spareImage.createGraphics();
+      lg.drawImage(layer.image, dX, dY, null);
+      BufferedImage image = layer.spareImage;
+      layer.spareImage = layer.image;
+      layer.image = image;
+      lg.setRenderingHints(g.getRenderingHints());
+      if (dX != 0) {
+        drawStaticLayer(lg, at, (dX > 0) ? new Rectangle(0, 0, dX, h) : new Rectangle(w + dX, 0, -dX, h), gridSize, ratio, staticObjects);
+      }
+      if (dY != 0) {
+        drawStaticLayer(lg, at, (dY > 0) ? new Rectangle(0, 0, w, dY) : new Rectangle(0, h + dY, w, -dY), gridSize, ratio, staticObjects);
+      }
+      lg.dispose();
+    } else {
+      Graphics2D lg = layer.image.createGraphics();
+      lg.setRenderingHints(g.getRenderingHints());
+      drawStaticLayer(lg, at, new Rectangle(0, 0, w, h), gridSize, ratio, staticObjects);
+      lg.dispose();
+    }
+  }
+
+  private void drawStaticLayer(Graphics2D lg, AffineTransform at, Rectangle clip, double gridSize, double ratio, List<ImmutableObject> staticObjects) {
+    lg.setTransform(new AffineTransform());
+    lg.setClip(clip.x, clip.y, clip.width, clip.height);
+    drawBackground(lg, clip);
+    lg.setTransform(at);
+    //grid lines just outside the region may cover some of its pixels
+    Rectangle gridBounds = new Rectangle(clip);
+    gridBounds.grow(1, 1);
+    drawGrid(lg, visibleWorld(at, gridBounds, new AffineTransform()), gridSize, ratio);
+    Stroke basicStroke = new BasicStroke(strokeWidth / (float) ratio);
+    for (ImmutableObject object : staticObjects) {
+      recursivelyDraw(object, lg, basicStroke, ratio);
+    }
+  }
+
+  //the world region shown by the given region of the graphics
+  private static BoundingBox visibleWorld(AffineTransform at, Rectangle bounds, AffineTransform oAt) {
+    AffineTransform localAt = new AffineTransform(at);
+    try {
+      localAt.preConcatenate(oAt.createInverse());
+      localAt = localAt.createInverse();
+    } catch (NoninvertibleTransformException e) {
+      return BoundingBox.build(Point2.build(0, 0));
+    }
+    Point2D min = localAt.transform(new Point2D.Double(bounds.getMinX(), bounds.getMaxY()), null);
+    Point2D max = localAt.transform(new Point2D.Double(bounds.getMaxX(), bounds.getMinY()), null);
+    return BoundingBox.build(Point2.build(min.getX(), min.getY()), Point2.build(max.getX(), max.getY()));
+  }
+
+  private static boolean isIntegerTranslation(AffineTransform at) {
+    return ((at.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0)
+        && (at.getTranslateX() == Math.rint(at.getTranslateX()))
+        && (at.getTranslateY() == Math.rint(at.getTranslateY()));
+  }
+
+  //leading objects which are the same instances of the previous snapshot, hence can be considered static
+  private static List<ImmutableObject> staticPrefix(List<ImmutableObject> objects, List<ImmutableObject> lastObjects) {
+    int n = 0;
+    while ((n < objects.size()) && (n < lastObjects.size()) && (objects.get(n) == lastObjects.get(n))) {
+      n = n + 1;
+    }
+    return objects.subList(0, n);
+  }
+
+  private static boolean sameObjects(List<ImmutableObject> objects1, List<ImmutableObject> objects2) {
+    if ((objects2 == null) || (objects1.size() != objects2.size())) {
+      return false;
+    }
+    for (int i = 0; i < objects1.size(); i++) {
+      if (objects1.get(i) != objects2.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private double computeGridSize(double x1, double x2) {
     double gridSize = (x2 - x1) / 10d;
     double exp = Math.floor(Math.log10(gridSize));
@@ -186,19 +382,66 @@ public class GraphicsDrawer implements Configurable<GraphicsDrawer> {
     return gridSize;
   }
 
-  private void recursivelyDraw(final ImmutableObject object, final Graphics2D g, Stroke basicStroke) {
+  private void recursivelyDraw(final ImmutableObject object, final Graphics2D g, Stroke basicStroke, double ratio) {
+    recursivelyDraw(object, g, basicStroke, ratio, Integer.MAX_VALUE);
+  }
+
+  //the level of detail of robots depends on how many pixels their voxels take: below detailVoxelPixels, parts of
+  //voxels (bodies, joints, sensor readings) are not drawn; below outlineVoxelPixels, just the robot outline is drawn
+  private void recursivelyDraw(final ImmutableObject object, final Graphics2D g, Stroke basicStroke, double ratio, int depth) {
+    if (object instanceof ImmutableRobot) {
+      double voxelPixels = ((ImmutableRobot) object).getTopology().getMeanVoxelSide() * ratio;
+      if (voxelPixels < outlineVoxelPixels) {
+        drawOutline((ImmutableRobot) object, g, basicStroke);
+        return;
+      }
+      if (voxelPixels < detailVoxelPixels) {
+        depth = 1;
+      }
+    }
     boolean drawChildren = true;
-    for (Drawer drawer : drawers) {
-      if (drawer.canDraw(object.getObjectClass())) {
-        g.setStroke(basicStroke);
-        g.setColor(basicColor);
-        drawChildren = drawer.draw(object, g);
-        break;
+    Optional<Drawer> drawer = drawer(object.getObjectClass());
+    if (drawer.isPresent()) {
+      g.setStroke(basicStroke);
+      g.setColor(basicColor);
+      drawChildren = drawer.get().draw(object, g);
+    }
+    if (drawChildren && (depth > 0)) {
+      for (ImmutableObject child : object.getChildren()) {
+        recursivelyDraw(child, g, basicStroke, ratio, depth - 1);
       }
     }
-    if (drawChildren) {
-      object.getChildren().stream().forEach(c -> recursivelyDraw(c, g, basicStroke));
+  }
+
+  private void drawOutline(ImmutableRobot robot, Graphics2D g, Stroke basicStroke) {
+    double[] coordinates = robot.getCoordinates();
+    ImmutableRobot.Topology topology = robot.getTopology();
+    //voxels have the same orientation, hence the non-zero rule fills their union
+    Path2D area = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    for (int i = 0; i < topology.getNOfVoxels(); i++) {
+      int offset = topology.getVoxel(i).getOffset();
+      area.moveTo(coordinates[offset], coordinates[offset + 1]);
+      for (int j = 1; j < 4; j++) {
+        area.lineTo(coordinates[offset + 2 * j], coordinates[offset + 2 * j + 1]);
+      }
+      area.closePath();
     }
+    g.setColor(outlineFillColor);
+    g.fill(area);
+    int[] offsets = topology.getOutlineOffsets();
+    Path2D outline = new Path2D.Double();
+    for (int i = 0; i < offsets.length; i = i + 2) {
+      outline.moveTo(coordinates[offsets[i]], coordinates[offsets[i] + 1]);
+      outline.lineTo(coordinates[offsets[i + 1]], coordinates[offsets[i + 1] + 1]);
+    }
+    g.setStroke(basicStroke);
+    g.setColor(basicColor);
+    g.draw(outline);
+  }
+
+  //first drawer which can draw the class, resolved once per class as long as the drawers do not change
+  private Optional<Drawer> drawer(Class<?> objectClass) {
+    return drawerTable.computeIfAbsent(objectClass, c -> drawers.stream().filter(d -> d.canDraw(c)).findFirst());
   }
 
   public static Color linear(final Color c1, final Color c2, final Color c3, float x1, float x2, float x3, float x) {
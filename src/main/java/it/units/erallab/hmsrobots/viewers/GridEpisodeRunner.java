@@ -16,22 +16,36 @@
  */
 package it.units.erallab.hmsrobots.viewers;
 
+import it.units.erallab.hmsrobots.tasks.AbstractTask;
 import it.units.erallab.hmsrobots.tasks.Task;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.StepProfiler;
+import it.units.erallab.hmsrobots.util.metrics.MetricsRegistry;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Flushable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
 /**
+ * Runs one episode for each solution of a grid, concurrently, passing snapshots to a {@link GridSnapshotListener}.
+ * <p>
+ * If a {@link MetricsRegistry} is given, each episode updates the counters {@code episodes_total}, {@code
+ * steps_total}, {@code voxel_steps_total}, {@code simulated_seconds_total} (the last three only for tasks which
+ * support a {@link StepProfiler}), and the histograms {@code episode_seconds} and {@code episode_allocated_bytes}
+ * (if the JVM can measure the memory allocated by threads); the gauges {@code episodes_running} and, if the executor
+ * is a {@link ThreadPoolExecutor}, {@code executor_queue_size} are registered too.
  *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
@@ -52,14 +66,63 @@ public class GridEpisodeRunner<S> implements Runnable {
 
   private final GridSnapshotListener gridSnapshotListener;
   private final ExecutorService executor;
+  private final MetricsRegistry registry;
+  private final AtomicInteger running;
 
   private static final Logger L = Logger.getLogger(GridEpisodeRunner.class.getName());
 
   public GridEpisodeRunner(Grid<Pair<String, S>> namedSolutionGrid, Task<S, ?> episode, GridSnapshotListener gridSnapshotListener, ExecutorService executor) {
+    this(namedSolutionGrid, episode, gridSnapshotListener, executor, null);
+  }
+
+  public GridEpisodeRunner(Grid<Pair<String, S>> namedSolutionGrid, Task<S, ?> episode, GridSnapshotListener gridSnapshotListener, ExecutorService executor, MetricsRegistry registry) {
     this.namedSolutionGrid = namedSolutionGrid;
     this.episode = episode;
     this.executor = executor;
     this.gridSnapshotListener = gridSnapshotListener;
+    this.registry = registry;
+    running = new AtomicInteger();
+    if (registry != null) {
+      registry.gauge("episodes_running", "Episodes being run", running::get);
+      if (executor instanceof ThreadPoolExecutor) {
+        registry.gauge("executor_queue_size", "Tasks waiting in the queue of the executor", () -> ((ThreadPoolExecutor) executor).getQueue().size());
+      }
+    }
+  }
+
+  private Object apply(S solution, SnapshotListener listener) {
+    if (registry == null) {
+      return episode.apply(solution, listener);
+    }
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    boolean allocationMeasured = (threadMXBean instanceof com.sun.management.ThreadMXBean)
+        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()
+        && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled();
+    long threadId = Thread.currentThread().getId();
+    long startingBytes = allocationMeasured ? ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) : 0L;
+    long startingNanos = System.nanoTime();
+    StepProfiler profiler = StepProfiler.build();
+    running.incrementAndGet();
+    Object outcome;
+    try {
+      if (episode instanceof AbstractTask) {
+        outcome = ((AbstractTask<S, ?>) episode).apply(solution, listener, profiler);
+      } else {
+        outcome = episode.apply(solution, listener);
+      }
+    } finally {
+      running.decrementAndGet();
+    }
+    registry.histogram("episode_seconds", "Wall-clock duration of episodes").observe((double) (System.nanoTime() - startingNanos) / 1e9d);
+    if (allocationMeasured) {
+      long bytes = ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadId) - startingBytes;
+      registry.histogram("episode_allocated_bytes", "Bytes allocated by the thread running the episode").observe((double) bytes);
+    }
+    registry.counter("episodes_total", "Completed episodes").inc();
+    registry.counter("steps_total", "Simulation steps").add(profiler.getSteps());
+    registry.counter("voxel_steps_total", "Simulation steps times number of voxels").add(profiler.getVoxelSteps());
+    registry.counter("simulated_seconds_total", "Simulated time").add(profiler.getSimulatedSeconds());
+    return outcome;
   }
 
   @Override
@@ -69,8 +132,12 @@ public class GridEpisodeRunner<S> implements Runnable {
     for (final Grid.Entry<Pair<String, S>> entry : namedSolutionGrid) {
       results.add(executor.submit(() -> {
         L.info(String.format("Starting %s in position (%d,%d)", episode.getClass().getSimpleName(), entry.getX(), entry.getY()));
-        Object outcome = episode.apply(entry.getValue().getRight(), gridSnapshotListener.listener(entry.getX(), entry.getY()));
-        L.info(String.format("Ended %s in position (%d,%d) with outcome %s", episode.getClass().getSimpleName(), entry.getX(), entry.getY(), outcome));
+        try {
+          Object outcome = apply(entry.getValue().getRight(), gridSnapshotListener.listener(entry.getX(), entry.getY()));
+          L.info(String.format("Ended %s in position (%d,%d) with outcome %s", episode.getClass().getSimpleName(), entry.getX(), entry.getY(), outcome));
+        } finally {
+          gridSnapshotListener.done(entry.getX(), entry.getY());
+        }
       }));
     }
     //wait for results
@@ -20,7 +20,7 @@ import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
 import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 import it.units.erallab.hmsrobots.util.Grid;
-import org.jcodec.api.awt.AWTSequenceEncoder;
+import it.units.erallab.hmsrobots.util.RingBuffer;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.model.Rational;
@@ -31,181 +31,284 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.Flushable;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.ExecutorService;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Writes a video of a grid of simulations.
+ * <p>
+ * Each frame is rendered tile by tile: tiles are drawn concurrently, each with its own {@link GraphicsDrawer} and
+ * image, on an internal pool of threads, and then composed into one frame. The pool is sized to the processors which
+ * are not used by the threads of the {@link FrameEncoder}, but it has at least one thread. Drawers cache the static
+ * layer of their tile (i.e., {@code staticLayerCached} is set), hence the scale of each tile is snapped to steps of
+ * 1/32 octave. Composed frames are passed to an internal
+ * encoding thread through a bounded queue, so that rendering of one frame overlaps with encoding of the previous ones
+ * without accumulating images in memory: composed frames are drawn on a fixed pool of preallocated images, which are
+ * converted by a {@link FrameEncoder} directly into one reused YUV picture, hence no image is allocated per frame.
+ * Snapshots are collected and aligned in time by a {@link SnapshotGridAligner}, whose bounded buffers apply the given
+ * {@link RingBuffer.OverflowPolicy} (by default, {@code BLOCK}, i.e., the simulations wait for the video writer rather
+ * than losing frames, as long as all of them are running).
+ *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class GridFileWriter implements Flushable, GridSnapshotListener {
 
+  private final static int ENCODING_QUEUE_SIZE = 4;
+  private final static int DEFAULT_CAPACITY = 64;
+
   private final int w;
   private final int h;
 
   private final Grid<String> namesGrid;
-  private final Queue<Grid<Snapshot>> gridQueue;
-  private final Grid<Queue<Snapshot>> queueGrid;
+  private final SnapshotGridAligner aligner;
   private final Grid<Framer> framerGrid;
+  private final Grid<GraphicsDrawer> drawerGrid;
+  private final Grid<BufferedImage> tileImageGrid;
+  private final Grid<int[]> tileBoundsGrid;
 
   private final SeekableByteChannel channel;
-  private final AWTSequenceEncoder encoder;
-  private final GraphicsDrawer graphicsDrawer;
+  private final FrameEncoder encoder;
+  private final ExecutorService tileExecutor;
+  private final ExecutorService encodingExecutor;
+  private final BlockingQueue<BufferedImage> encodingQueue;
+  private final BlockingQueue<BufferedImage> freeImages;
 
-  private double t;
-  private boolean running;
-  private int drawnCount;
+  private final Object progressLock = new Object();
+  private long processedCount;
+  private volatile Throwable encodingFailure;
 
   private static final Logger L = Logger.getLogger(GridFileWriter.class.getName());
 
   public GridFileWriter(int w, int h, double frameRate, File file, Grid<String> namesGrid, ExecutorService executor) throws FileNotFoundException, IOException {
+    this(w, h, frameRate, file, namesGrid, executor, DEFAULT_CAPACITY, RingBuffer.OverflowPolicy.BLOCK);
+  }
+
+  public GridFileWriter(int w, int h, double frameRate, File file, Grid<String> namesGrid, ExecutorService executor, int capacity, RingBuffer.OverflowPolicy policy) throws FileNotFoundException, IOException {
+    this(w, h, frameRate, file, namesGrid, executor, capacity, policy, Math.min(FrameEncoder.DEFAULT_N_OF_THREADS, Runtime.getRuntime().availableProcessors()));
+  }
+
+  public GridFileWriter(int w, int h, double frameRate, File file, Grid<String> namesGrid, ExecutorService executor, int capacity, RingBuffer.OverflowPolicy policy, int nOfEncodingThreads) throws FileNotFoundException, IOException {
     this.w = w;
     this.h = h;
     this.namesGrid = namesGrid;
     framerGrid = Grid.create(namesGrid);
-    gridQueue = new LinkedList<>();
-    queueGrid = Grid.create(namesGrid);
+    drawerGrid = Grid.create(namesGrid);
+    tileImageGrid = Grid.create(namesGrid);
+    tileBoundsGrid = Grid.create(namesGrid);
     //prepare things
     channel = NIOUtils.writableChannel(file);
-    encoder = new AWTSequenceEncoder(channel, Rational.R((int) Math.round(frameRate), 1));
-    graphicsDrawer = GraphicsDrawer.build();
+    encoder = new FrameEncoder(channel, Rational.R((int) Math.round(frameRate), 1), w, h, nOfEncodingThreads);
+    double localW = (double) w / (double) namesGrid.getW();
+    double localH = (double) h / (double) namesGrid.getH();
     for (int x = 0; x < namesGrid.getW(); x++) {
       for (int y = 0; y < namesGrid.getH(); y++) {
         framerGrid.set(x, y, new VoxelCompoundFollower((int) frameRate * 3, 1.5d, 100, VoxelCompoundFollower.AggregateType.MAX));
-        queueGrid.set(x, y, new LinkedList<>());
+        drawerGrid.set(x, y, GraphicsDrawer.build().setConfigurable("staticLayerCached", true));
+        int[] bounds = new int[]{
+            (int) (localW * x), (int) (localH * y),
+            (int) (localW * (x + 1)) - (int) (localW * x), (int) (localH * (y + 1)) - (int) (localH * y)
+        };
+        tileBoundsGrid.set(x, y, bounds);
+        tileImageGrid.set(x, y, new BufferedImage(bounds[2], bounds[3], BufferedImage.TYPE_3BYTE_BGR));
       }
     }
-    //init time and grid
-    t = 0d;
-    running = true;
-    drawnCount = 0;
-    //start consumer of composed frames
-    executor.submit(() -> {
-      while (running) {
-        Grid<Snapshot> localSnapshotGrid;
-        localSnapshotGrid = gridQueue.poll();
-        if (localSnapshotGrid != null) {
-          renderFrame(localSnapshotGrid);
-          synchronized (gridQueue) {
-            gridQueue.notifyAll();
-          }
-        } else {
-          synchronized (gridQueue) {
-            try {
-              gridQueue.wait();
-            } catch (InterruptedException ex) {
-              //ignore
-            }
+    tileExecutor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(namesGrid.getW() * namesGrid.getH(), Runtime.getRuntime().availableProcessors() - nOfEncodingThreads)),
+        daemonThreadFactory("tile-renderer")
+    );
+    encodingExecutor = Executors.newSingleThreadExecutor(daemonThreadFactory("frame-encoder"));
+    encodingQueue = new ArrayBlockingQueue<>(ENCODING_QUEUE_SIZE);
+    freeImages = new ArrayBlockingQueue<>(ENCODING_QUEUE_SIZE + 1);
+    for (int i = 0; i < ENCODING_QUEUE_SIZE + 1; i++) {
+      freeImages.add(new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR));
+    }
+    //init counters
+    processedCount = 0;
+    //start encoder of composed frames
+    encodingExecutor.submit(() -> {
+      while (true) {
+        BufferedImage image;
+        try {
+          image = encodingQueue.take();
+        } catch (InterruptedException ex) {
+          break;
+        }
+        try {
+          if (encodingFailure == null) {
+            encoder.encodeImage(image);
           }
+        } catch (IOException | RuntimeException ex) {
+          //the video is broken from now on: keep consuming frames, the failure is thrown by flush()
+          L.log(Level.SEVERE, String.format("Cannot encode image due to %s", ex), ex);
+          encodingFailure = ex;
+        } finally {
+          freeImages.offer(image);
+          frameProcessed();
         }
       }
     });
-    //start consumer of single frames
+    //start aligner of single frames
+    aligner = new SnapshotGridAligner(namesGrid, frameRate, capacity, policy, executor);
+    //start consumer of composed frames
     executor.submit(() -> {
-          while (running) {
-            //check if ready
-            Grid<Snapshot> snapshotGrid = Grid.create(queueGrid);
-            synchronized (queueGrid) {
-              for (Grid.Entry<Queue<Snapshot>> entry : queueGrid) {
-                Snapshot snapshot;
-                while ((snapshot = entry.getValue().peek()) != null) {
-                  if (snapshot.getTime() < t) {
-                    entry.getValue().poll();
-                  } else {
-                    break;
-                  }
-                }
-                snapshotGrid.set(entry.getX(), entry.getY(), snapshot);
-              }
-            }
-            boolean ready = true;
-            for (Grid.Entry<Queue<Snapshot>> entry : queueGrid) {
-              ready = ready && ((namesGrid.get(entry.getX(), entry.getY()) == null) || (snapshotGrid.get(entry.getX(), entry.getY()) != null));
-            }
-            if (ready) {
-              //update time
-              t = t + 1d / frameRate;
-              //render asynchronously
-              synchronized (gridQueue) {
-                gridQueue.offer(Grid.copy(snapshotGrid));
-                gridQueue.notifyAll();
-              }
-            } else {
-              synchronized (queueGrid) {
-                try {
-                  queueGrid.wait();
-                } catch (InterruptedException ex) {
-                  //ignore
-                }
-              }
-            }
+      while (true) {
+        Grid<Snapshot> localSnapshotGrid;
+        try {
+          localSnapshotGrid = aligner.take();
+        } catch (InterruptedException ex) {
+          break;
+        }
+        if (localSnapshotGrid == null) {
+          //aligner stopped
+          break;
+        }
+        boolean queued = false;
+        try {
+          queued = renderFrame(localSnapshotGrid);
+        } catch (RuntimeException ex) {
+          L.log(Level.SEVERE, String.format("Cannot render frame due to %s", ex), ex);
+        } finally {
+          if (!queued) {
+            frameProcessed();
           }
         }
-    );
+      }
+    });
+  }
+
+  //invoked once for each aligned frame, when it has been encoded or given up
+  private void frameProcessed() {
+    synchronized (progressLock) {
+      processedCount = processedCount + 1;
+      progressLock.notifyAll();
+    }
   }
 
   @Override
   public SnapshotListener listener(final int lX, final int lY) {
-    return (Snapshot snapshot) -> {
-      synchronized (queueGrid) {
-        queueGrid.get(lX, lY).offer(snapshot);
-        queueGrid.notifyAll();
-      }
+    return aligner.listener(lX, lY);
+  }
+
+  @Override
+  public void done(int x, int y) {
+    aligner.done(x, y);
+  }
+
+  public SnapshotGridAligner getAligner() {
+    return aligner;
+  }
+
+  private static ThreadFactory daemonThreadFactory(String name) {
+    return r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
     };
   }
 
-  private void renderFrame(Grid<Snapshot> localSnapshotGrid) {
-    L.finer(String.format("Writing frame %d/%d", drawnCount, drawnCount + gridQueue.size()));
+  //returns true if the frame has been passed to the encoder
+  private boolean renderFrame(Grid<Snapshot> localSnapshotGrid) {
+    L.finer(String.format("Writing frame %d/%d", processedCount, aligner.getFrameCount()));
     //set local clip size
     double localW = (double) w / (double) namesGrid.getW();
     double localH = (double) h / (double) namesGrid.getH();
-    //build image and graphics
-    BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
-    Graphics2D g = image.createGraphics();
-    //iterate over snapshot grid
+    //render tiles concurrently
+    Grid<Future<?>> futures = Grid.create(localSnapshotGrid);
     for (Grid.Entry<Snapshot> entry : localSnapshotGrid) {
       if (entry.getValue() != null) {
-        //obtain viewport
-        BoundingBox frame = framerGrid.get(entry.getX(), entry.getY()).getFrame(entry.getValue(), localW / localH);
-        //draw
-        graphicsDrawer.draw(
-            entry.getValue(), g,
-            BoundingBox.build(
-                Point2.build(localW * entry.getX(), localH * entry.getY()),
-                Point2.build(localW * (entry.getX() + 1), localH * (entry.getY() + 1))
-            ),
-            frame, namesGrid.get(entry.getX(), entry.getY())
-        );
+        futures.set(entry.getX(), entry.getY(), tileExecutor.submit(() -> renderTile(entry.getX(), entry.getY(), entry.getValue(), localW / localH)));
+      }
+    }
+    //tiles which failed are filled as empty cells, rather than showing stale or partial content
+    Grid<Boolean> rendered = Grid.create(futures.getW(), futures.getH(), false);
+    for (Grid.Entry<Future<?>> entry : futures) {
+      if (entry.getValue() != null) {
+        try {
+          entry.getValue().get();
+          rendered.set(entry.getX(), entry.getY(), true);
+        } catch (InterruptedException | ExecutionException ex) {
+          L.log(Level.SEVERE, String.format("Cannot render tile (%d,%d) due to %s", entry.getX(), entry.getY(), ex), ex);
+        }
+      }
+    }
+    //compose
+    BufferedImage image;
+    try {
+      image = freeImages.take();
+    } catch (InterruptedException ex) {
+      L.severe(String.format("Cannot compose frame due to %s", ex));
+      return false;
+    }
+    Graphics2D g = image.createGraphics();
+    for (Grid.Entry<Snapshot> entry : localSnapshotGrid) {
+      int[] bounds = tileBoundsGrid.get(entry.getX(), entry.getY());
+      if (rendered.get(entry.getX(), entry.getY())) {
+        g.drawImage(tileImageGrid.get(entry.getX(), entry.getY()), bounds[0], bounds[1], null);
+      } else {
+        g.setColor(Color.BLACK);
+        g.fillRect(bounds[0], bounds[1], bounds[2], bounds[3]);
       }
-
     }
-    //dispose and encode
     g.dispose();
-    //encode
+    //pass to encoder
     try {
-      encoder.encodeImage(image);
-    } catch (IOException ex) {
-      L.severe(String.format("Cannot encode image due to %s", ex));
+      encodingQueue.put(image);
+      return true;
+    } catch (InterruptedException ex) {
+      L.severe(String.format("Cannot encode frame due to %s", ex));
+      freeImages.offer(image);
+      return false;
     }
-    drawnCount = drawnCount + 1;
+  }
+
+  private void renderTile(int x, int y, Snapshot snapshot, double ratio) {
+    BufferedImage tileImage = tileImageGrid.get(x, y);
+    //obtain viewport
+    BoundingBox frame = framerGrid.get(x, y).getFrame(snapshot, ratio);
+    //draw
+    Graphics2D g = tileImage.createGraphics();
+    drawerGrid.get(x, y).draw(
+        snapshot, g,
+        BoundingBox.build(
+            Point2.build(0, 0),
+            Point2.build(tileImage.getWidth(), tileImage.getHeight())
+        ),
+        frame, namesGrid.get(x, y)
+    );
+    g.dispose();
   }
 
   @Override
   public void flush() throws IOException {
-    while (!gridQueue.isEmpty()) {
-      synchronized (gridQueue) {
-        try {
-          gridQueue.wait();
-        } catch (InterruptedException ex) {
-          //ignore
+    try {
+      aligner.awaitIdle();
+      //wait for all the aligned frames to be encoded
+      long frameCount = aligner.getFrameCount();
+      synchronized (progressLock) {
+        while (processedCount < frameCount) {
+          progressLock.wait();
         }
       }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while encoding the last frames");
+    }
+    L.fine(String.format("Flushing data; buffers: %s", aligner));
+    try {
+      if (encodingFailure == null) {
+        encoder.finish();
+      }
+    } finally {
+      NIOUtils.closeQuietly(channel);
+      aligner.stop();
+      tileExecutor.shutdown();
+      encodingExecutor.shutdownNow();
+    }
+    if (encodingFailure != null) {
+      throw new IOException(String.format("Cannot encode video due to %s", encodingFailure), encodingFailure);
     }
-    L.fine("Flushing data");
-    encoder.finish();
-    NIOUtils.closeQuietly(channel);
-    running = false;
   }
 
 }
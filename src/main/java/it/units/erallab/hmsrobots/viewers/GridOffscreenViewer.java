@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
+import it.units.erallab.hmsrobots.objects.immutable.Point2;
+import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RingBuffer;
+import it.units.erallab.hmsrobots.viewers.sinks.FrameSink;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless counterpart of {@link GridOnlineViewer}: renders the grid of simulations on one reused {@link
+ * BufferedImage}, rather than on a window, and passes it to a {@link FrameSink}.
+ * <p>
+ * At most {@code frameRate} frames per second are rendered, each with the most recent aligned grid of snapshots, and
+ * rendering (including the time taken by the sink) is throttled so that it takes at most the fraction {@code
+ * cpuShare} of the time of one thread: when a frame takes longer, the following frames are skipped. Snapshots are
+ * aligned by a {@link SnapshotGridAligner} whose cell buffers {@code DROP} snapshots by default, so that monitoring
+ * never slows down the simulations.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class GridOffscreenViewer implements GridSnapshotListener, Closeable {
+
+  public final static double DEFAULT_CPU_SHARE = 0.1d;
+  private final static int DEFAULT_CAPACITY = GridOnlineViewer.FRAME_RATE * 2;
+
+  private final Grid<String> namesGrid;
+  private final SnapshotGridAligner aligner;
+  private final Grid<Framer> framerGrid;
+  private final GraphicsDrawer graphicsDrawer;
+  private final BufferedImage image;
+  private final FrameSink sink;
+  private final double frameRate;
+  private final double cpuShare;
+  private final ScheduledFuture<?> future;
+
+  private long nextRenderingNanos;
+  private volatile long renderedCount;
+
+  private static final Logger L = Logger.getLogger(GridOffscreenViewer.class.getName());
+
+  public GridOffscreenViewer(Grid<String> namesGrid, int w, int h, FrameSink sink, ScheduledExecutorService executor) {
+    this(namesGrid, w, h, GridOnlineViewer.FRAME_RATE, DEFAULT_CPU_SHARE, sink, executor, DEFAULT_CAPACITY, RingBuffer.OverflowPolicy.DROP);
+  }
+
+  public GridOffscreenViewer(Grid<String> namesGrid, int w, int h, double frameRate, double cpuShare, FrameSink sink, ScheduledExecutorService executor, int capacity, RingBuffer.OverflowPolicy policy) {
+    if ((cpuShare <= 0d) || (cpuShare > 1d)) {
+      throw new IllegalArgumentException(String.format("CPU share must be in ]0,1]: %f", cpuShare));
+    }
+    this.namesGrid = namesGrid;
+    this.sink = sink;
+    this.frameRate = frameRate;
+    this.cpuShare = cpuShare;
+    //create things
+    framerGrid = Grid.create(namesGrid);
+    for (int x = 0; x < namesGrid.getW(); x++) {
+      for (int y = 0; y < namesGrid.getH(); y++) {
+        framerGrid.set(x, y, new VoxelCompoundFollower((int) frameRate * 3, 1.5d, 100, VoxelCompoundFollower.AggregateType.MAX));
+      }
+    }
+    graphicsDrawer = GraphicsDrawer.build();
+    image = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+    //start aligner of single frames
+    aligner = new SnapshotGridAligner(namesGrid, frameRate, capacity, policy, executor);
+    //start consumer of composed frames
+    nextRenderingNanos = System.nanoTime();
+    future = executor.scheduleAtFixedRate(this::tick, 0, Math.round(1000d / frameRate), TimeUnit.MILLISECONDS);
+  }
+
+  private void tick() {
+    //take the most recent frame, skipping older ones
+    Grid<Snapshot> localSnapshotGrid = null;
+    Grid<Snapshot> polled;
+    while ((polled = aligner.poll()) != null) {
+      localSnapshotGrid = polled;
+    }
+    if ((localSnapshotGrid == null) || (System.nanoTime() < nextRenderingNanos)) {
+      return;
+    }
+    long startingNanos = System.nanoTime();
+    try {
+      renderFrame(localSnapshotGrid);
+      sink.accept(image, SnapshotGridAligner.time(localSnapshotGrid));
+      renderedCount = renderedCount + 1;
+    } catch (Throwable t) {
+      L.log(Level.SEVERE, String.format("Cannot render frame due to %s", t), t);
+    }
+    //wait enough for the rendering time to be the given share of the elapsed time
+    long elapsedNanos = System.nanoTime() - startingNanos;
+    nextRenderingNanos = startingNanos + Math.round((double) elapsedNanos / cpuShare);
+  }
+
+  @Override
+  public SnapshotListener listener(final int lX, final int lY) {
+    return aligner.listener(lX, lY);
+  }
+
+  @Override
+  public void done(int x, int y) {
+    aligner.done(x, y);
+  }
+
+  public SnapshotGridAligner getAligner() {
+    return aligner;
+  }
+
+  public GraphicsDrawer getGraphicsDrawer() {
+    return graphicsDrawer;
+  }
+
+  public long getRenderedCount() {
+    return renderedCount;
+  }
+
+  private void renderFrame(Grid<Snapshot> localSnapshotGrid) {
+    //set local clip size
+    double localW = (double) image.getWidth() / (double) namesGrid.getW();
+    double localH = (double) image.getHeight() / (double) namesGrid.getH();
+    Graphics2D g = image.createGraphics();
+    //iterate over snapshot grid
+    for (Grid.Entry<Snapshot> entry : localSnapshotGrid) {
+      if (entry.getValue() != null) {
+        //obtain viewport
+        BoundingBox frame = framerGrid.get(entry.getX(), entry.getY()).getFrame(entry.getValue(), localW / localH);
+        //draw
+        graphicsDrawer.draw(
+            entry.getValue(), g,
+            BoundingBox.build(
+                Point2.build(localW * entry.getX(), localH * entry.getY()),
+                Point2.build(localW * (entry.getX() + 1), localH * (entry.getY() + 1))
+            ),
+            frame, namesGrid.get(entry.getX(), entry.getY())
+        );
+      }
+    }
+    g.dispose();
+  }
+
+  @Override
+  public void close() throws IOException {
+    future.cancel(false);
+    aligner.stop();
+    sink.close();
+  }
+
+}
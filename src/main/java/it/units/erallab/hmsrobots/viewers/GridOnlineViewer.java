@@ -21,50 +21,65 @@ import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
 import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RingBuffer;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferStrategy;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Shows a grid of simulations in a window.
+ * <p>
+ * By default, snapshots are aligned in time by a {@link SnapshotGridAligner} and shown in order, at most at the
+ * simulated time elapsed since the viewer started. In latest-value mode, instead, each listener just replaces the last
+ * snapshot of its cell, and each refresh shows the most recent snapshot of every cell: no snapshot is queued and the
+ * simulations are never blocked, at the cost of skipping frames and of showing cells which may not be exactly aligned
+ * in time.
+ *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
 
-  private final static int FRAME_RATE = 30;
+  public final static int FRAME_RATE = 30;
   private final static int INIT_WIN_WIDTH = 1000;
   private final static int INIT_WIN_HEIGHT = 600;
+  private final static int DEFAULT_CAPACITY = FRAME_RATE * 2;
 
   private final Grid<String> namesGrid;
-  private final Queue<Grid<Snapshot>> gridQueue;
-  private final Grid<Queue<Snapshot>> queueGrid;
+  private final SnapshotGridAligner aligner;
+  private final Grid<AtomicReference<Snapshot>> latestGrid;
   private final Grid<Framer> framerGrid;
 
   private final Canvas canvas;
   private final GraphicsDrawer graphicsDrawer;
   private final ScheduledExecutorService executor;
 
-  private double t;
-  private boolean running;
-
   public GridOnlineViewer(Grid<String> namesGrid, ScheduledExecutorService executor) {
+    this(namesGrid, executor, DEFAULT_CAPACITY, RingBuffer.OverflowPolicy.BLOCK);
+  }
+
+  public GridOnlineViewer(Grid<String> namesGrid, ScheduledExecutorService executor, int capacity, RingBuffer.OverflowPolicy policy) {
+    this(namesGrid, executor, capacity, policy, false);
+  }
+
+  public GridOnlineViewer(Grid<String> namesGrid, ScheduledExecutorService executor, boolean latestOnly) {
+    this(namesGrid, executor, DEFAULT_CAPACITY, RingBuffer.OverflowPolicy.BLOCK, latestOnly);
+  }
+
+  private GridOnlineViewer(Grid<String> namesGrid, ScheduledExecutorService executor, int capacity, RingBuffer.OverflowPolicy policy, boolean latestOnly) {
     super("World viewer");
     this.namesGrid = namesGrid;
     this.executor = executor;
     //create things
     framerGrid = Grid.create(namesGrid);
-    gridQueue = new LinkedList<>();
-    queueGrid = Grid.create(namesGrid);
     //create drawer
     graphicsDrawer = GraphicsDrawer.build();
     for (int x = 0; x < namesGrid.getW(); x++) {
       for (int y = 0; y < namesGrid.getH(); y++) {
         framerGrid.set(x, y, new VoxelCompoundFollower((int) FRAME_RATE * 3, 1.5d, 100, VoxelCompoundFollower.AggregateType.MAX));
-        queueGrid.set(x, y, new LinkedList<>());
       }
     }
     //create/set ui components
@@ -79,51 +94,15 @@ public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
     getContentPane().add(canvas, BorderLayout.CENTER);
     //pack
     pack();
-    //init time and grid
-    t = 0d;
-    running = true;
-    //start consumer of single frames
-    executor.submit(() -> {
-          while (running) {
-            //check if ready
-            Grid<Snapshot> snapshotGrid = Grid.create(queueGrid);
-            synchronized (queueGrid) {
-              for (Grid.Entry<Queue<Snapshot>> entry : queueGrid) {
-                Snapshot snapshot;
-                while ((snapshot = entry.getValue().peek()) != null) {
-                  if (snapshot.getTime() < t) {
-                    entry.getValue().poll();
-                  } else {
-                    break;
-                  }
-                }
-                snapshotGrid.set(entry.getX(), entry.getY(), snapshot);
-              }
-            }
-            boolean ready = true;
-            for (Grid.Entry<Queue<Snapshot>> entry : queueGrid) {
-              ready = ready && ((namesGrid.get(entry.getX(), entry.getY()) == null) || (snapshotGrid.get(entry.getX(), entry.getY()) != null));
-            }
-            if (ready) {
-              //update time
-              t = t + 1d / FRAME_RATE;
-              //render asynchronously
-              synchronized (gridQueue) {
-                gridQueue.offer(Grid.copy(snapshotGrid));
-                gridQueue.notifyAll();
-              }
-            } else {
-              synchronized (queueGrid) {
-                try {
-                  queueGrid.wait();
-                } catch (InterruptedException ex) {
-                  //ignore
-                }
-              }
-            }
-          }
-        }
-    );
+    if (latestOnly) {
+      //just keep the last snapshot of each cell
+      aligner = null;
+      latestGrid = Grid.create(namesGrid.getW(), namesGrid.getH(), (x, y) -> new AtomicReference<>());
+    } else {
+      //start aligner of single frames
+      aligner = new SnapshotGridAligner(namesGrid, FRAME_RATE, capacity, policy, executor);
+      latestGrid = null;
+    }
   }
 
   public void start(int delay) {
@@ -134,20 +113,31 @@ public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
     Runnable drawer = new Runnable() {
       Stopwatch stopwatch = Stopwatch.createUnstarted();
 
+      Grid<Snapshot> lastSnapshotGrid = null;
+
       @Override
       public void run() {
+        if (latestGrid != null) {
+          Grid<Snapshot> localSnapshotGrid = latestSnapshotGrid(lastSnapshotGrid);
+          if (localSnapshotGrid != null) {
+            lastSnapshotGrid = localSnapshotGrid;
+            try {
+              renderFrame(localSnapshotGrid);
+            } catch (Throwable t) {
+              t.printStackTrace();
+              System.exit(0);
+            }
+          }
+          return;
+        }
         if (!stopwatch.isRunning()) {
           stopwatch.start();
         }
         double currentTime = (double) stopwatch.elapsed(TimeUnit.MILLISECONDS) / 1000d;
         Grid<Snapshot> localSnapshotGrid = null;
-        synchronized (gridQueue) {
-          while (!gridQueue.isEmpty()) {
-            localSnapshotGrid = gridQueue.poll();
-            if (gridQueue.isEmpty() || (gridQueue.peek().get(0, 0).getTime() > currentTime)) {
-              break;
-            }
-          }
+        //take the most recent frame not in the future, skipping older ones
+        while ((aligner.peek() != null) && ((localSnapshotGrid == null) || (SnapshotGridAligner.time(aligner.peek()) <= currentTime))) {
+          localSnapshotGrid = aligner.poll();
         }
         if (localSnapshotGrid != null) {
           try {
@@ -156,19 +146,7 @@ public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
             t.printStackTrace();
             System.exit(0);
           }
-          synchronized (gridQueue) {
-            gridQueue.notifyAll();
-          }
-        } else {
-          synchronized (gridQueue) {
-            try {
-              gridQueue.wait();
-            } catch (InterruptedException ex) {
-              //ignore
-            }
-          }
         }
-
       }
     };
     executor.scheduleAtFixedRate(drawer, Math.round(delay * 1000d), Math.round(1000d / (double) FRAME_RATE), TimeUnit.MILLISECONDS);
@@ -178,14 +156,41 @@ public class GridOnlineViewer extends JFrame implements GridSnapshotListener {
     return e.name().replace("_", " ").toLowerCase();
   }
 
+  //the most recent snapshots, if every named cell has one and at least one is newer than the last shown ones
+  private Grid<Snapshot> latestSnapshotGrid(Grid<Snapshot> lastSnapshotGrid) {
+    Grid<Snapshot> snapshotGrid = Grid.create(latestGrid);
+    boolean changed = (lastSnapshotGrid == null);
+    for (Grid.Entry<AtomicReference<Snapshot>> entry : latestGrid) {
+      Snapshot snapshot = entry.getValue().get();
+      if ((snapshot == null) && (namesGrid.get(entry.getX(), entry.getY()) != null)) {
+        return null;
+      }
+      snapshotGrid.set(entry.getX(), entry.getY(), snapshot);
+      changed = changed || (snapshot != lastSnapshotGrid.get(entry.getX(), entry.getY()));
+    }
+    return changed ? snapshotGrid : null;
+  }
+
   @Override
   public SnapshotListener listener(final int lX, final int lY) {
-    return (Snapshot snapshot) -> {
-      synchronized (queueGrid) {
-        queueGrid.get(lX, lY).offer(snapshot);
-        queueGrid.notifyAll();
-      }
-    };
+    if (latestGrid != null) {
+      return latestGrid.get(lX, lY)::set;
+    }
+    return aligner.listener(lX, lY);
+  }
+
+  @Override
+  public void done(int x, int y) {
+    if (aligner != null) {
+      aligner.done(x, y);
+    }
+  }
+
+  /**
+   * Returns the aligner of the snapshots, or {@code null} if this viewer is in latest-value mode.
+   */
+  public SnapshotGridAligner getAligner() {
+    return aligner;
   }
 
   private void renderFrame(Grid<Snapshot> localSnapshotGrid) {
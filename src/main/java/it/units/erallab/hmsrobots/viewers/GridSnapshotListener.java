@@ -23,5 +23,12 @@ package it.units.erallab.hmsrobots.viewers;
 public interface GridSnapshotListener {
   
   public SnapshotListener listener(int x, int y);
+
+  /**
+   * Tells that the listener of the cell at {@code (x, y)} will not receive any more snapshots, e.g., because the
+   * episode of that cell ended or failed.
+   */
+  public default void done(int x, int y) {
+  }
   
 }
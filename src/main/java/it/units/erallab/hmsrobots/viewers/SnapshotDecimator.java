@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
+
+/**
+ * Adapter which passes to a {@link SnapshotListener} one snapshot for each {@code 1/rate} of simulated time, exactly
+ * at times {@code k/rate}, rather than one for each simulation step.
+ * <p>
+ * The producer of snapshots, stepping the simulation with a time step {@code dT}, should build a snapshot at time
+ * {@code t} only if {@link #isNeeded(double)} returns {@code true}, i.e., only at the steps immediately before and
+ * after each requested time: the snapshot at the requested time is then obtained with {@link
+ * Snapshot#interpolate(Snapshot, Snapshot, double)}. If {@code rate} is not positive, all the snapshots are passed
+ * unchanged.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class SnapshotDecimator implements SnapshotListener {
+
+  private final static double TOLERANCE = 1e-3;
+
+  private final double rate;
+  private final double dT;
+  private final SnapshotListener listener;
+
+  private long frameCount;
+  private double nextT;
+  private Snapshot lastSnapshot;
+
+  public SnapshotDecimator(double rate, double dT, SnapshotListener listener) {
+    this.rate = rate;
+    this.dT = dT;
+    this.listener = listener;
+    nextT = Double.NaN;
+  }
+
+  public boolean isNeeded(double t) {
+    if (rate <= 0d) {
+      return true;
+    }
+    init(t);
+    return t + dT * (1d + TOLERANCE) >= nextT;
+  }
+
+  @Override
+  public void listen(Snapshot snapshot) {
+    if (rate <= 0d) {
+      listener.listen(snapshot);
+      return;
+    }
+    double t = snapshot.getTime();
+    init(t);
+    while (t >= nextT) {
+      if ((lastSnapshot == null) || (t == nextT) || (lastSnapshot.getTime() >= nextT)) {
+        listener.listen(snapshot);
+      } else {
+        listener.listen(Snapshot.interpolate(lastSnapshot, snapshot, nextT));
+      }
+      frameCount = frameCount + 1;
+      nextT = (double) frameCount / rate;
+    }
+    lastSnapshot = snapshot;
+  }
+
+  private void init(double t) {
+    if (Double.isNaN(nextT)) {
+      frameCount = (long) Math.ceil(t * rate);
+      nextT = (double) frameCount / rate;
+    }
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RingBuffer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collects the snapshots of a grid of simulations and aligns them in time: one grid of snapshots is produced for each
+ * {@code 1/frameRate} of simulated time, as soon as every cell of the grid has reached that time. Cells declared
+ * {@link #done(int, int)} are not waited for: once their snapshots are over, they keep their last snapshot.
+ * <p>
+ * Each cell has its own {@link RingBuffer}, filled by the listener of that cell according to the given {@link
+ * RingBuffer.OverflowPolicy}; aligned grids are put in an output buffer of the same capacity, which blocks the
+ * alignment when full. Hence the memory used is bounded regardless of the length of the simulations. With {@code
+ * BLOCK}, a listener waits for room only as long as every named cell has started sending snapshots (or is done):
+ * otherwise, the alignment itself waits for a cell which may be queued behind the waiting simulations, hence the
+ * snapshot is discarded as with {@code DROP}.
+ * <p>
+ * Each cell buffer has one producer, the simulation of that cell, and one consumer, the alignment thread; the output
+ * buffer has the alignment thread as producer and the caller of {@link #poll()} or {@link #take()} as consumer.
+ * Snapshots are hence offered without locking and the alignment thread is just unparked: the lock is taken only by
+ * threads which have to wait (a listener finding its buffer full with {@code BLOCK}, {@link #take()} finding no aligned
+ * grid, {@link #awaitIdle()}), and by the alignment thread only when one of them is waiting.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class SnapshotGridAligner implements GridSnapshotListener {
+
+  private enum CellState {
+    WAITING, RUNNING, DONE
+  }
+
+  private final Grid<String> namesGrid;
+  private final double frameRate;
+  private final RingBuffer.OverflowPolicy policy;
+  private final Grid<RingBuffer<Snapshot>> bufferGrid;
+  private final Grid<AtomicReference<CellState>> stateGrid;
+  private final Grid<Snapshot> lastSnapshotGrid;
+  private final RingBuffer<Grid<Snapshot>> outputBuffer;
+  private final Lock lock;
+  private final Condition changed;
+  private final AtomicInteger nOfWaiters;
+  //counts snapshots, done cells, polled grids and stops, i.e., the events which may let the alignment progress
+  private final AtomicLong nOfEvents;
+
+  private volatile Thread alignerThread;
+  private volatile long frameCount;
+  private volatile long nOfCheckedEvents;
+  private volatile boolean running;
+  //only accessed by the alignment thread
+  private double t;
+
+  public SnapshotGridAligner(Grid<String> namesGrid, double frameRate, int capacity, RingBuffer.OverflowPolicy policy, ExecutorService executor) {
+    this.namesGrid = namesGrid;
+    this.frameRate = frameRate;
+    this.policy = policy;
+    //blocking is done here, hence the buffers themselves never block
+    RingBuffer.OverflowPolicy bufferPolicy = policy.equals(RingBuffer.OverflowPolicy.BLOCK) ? RingBuffer.OverflowPolicy.DROP : policy;
+    bufferGrid = Grid.create(namesGrid.getW(), namesGrid.getH(), (x, y) -> new RingBuffer<>(capacity, bufferPolicy));
+    stateGrid = Grid.create(namesGrid.getW(), namesGrid.getH(), (x, y) -> new AtomicReference<>(CellState.WAITING));
+    lastSnapshotGrid = Grid.create(namesGrid);
+    outputBuffer = new RingBuffer<>(capacity, RingBuffer.OverflowPolicy.DROP);
+    lock = new ReentrantLock();
+    changed = lock.newCondition();
+    nOfWaiters = new AtomicInteger();
+    nOfEvents = new AtomicLong();
+    frameCount = 0;
+    nOfCheckedEvents = 0;
+    running = true;
+    t = 0d;
+    executor.submit(() -> {
+      alignerThread = Thread.currentThread();
+      while (running && !Thread.currentThread().isInterrupted()) {
+        long nOfSeenEvents = nOfEvents.get();
+        while (running && (outputBuffer.size() < outputBuffer.getCapacity()) && align()) {
+          signalWaiters();
+        }
+        //nothing to align (or no room for it) until something changes
+        if (outputBuffer.size() < outputBuffer.getCapacity()) {
+          nOfCheckedEvents = nOfSeenEvents;
+        }
+        signalWaiters();
+        //the permit given by unpark may have been consumed while locking, hence the events are checked too
+        if (nOfEvents.get() == nOfSeenEvents) {
+          LockSupport.park(this);
+        }
+      }
+    });
+  }
+
+  @Override
+  public SnapshotListener listener(final int lX, final int lY) {
+    return snapshot -> put(lX, lY, snapshot);
+  }
+
+  private void put(int x, int y, Snapshot snapshot) {
+    RingBuffer<Snapshot> buffer = bufferGrid.get(x, y);
+    stateGrid.get(x, y).compareAndSet(CellState.WAITING, CellState.RUNNING);
+    if (!policy.equals(RingBuffer.OverflowPolicy.BLOCK)) {
+      buffer.put(snapshot);
+    } else if (!buffer.offer(snapshot)) {
+      lock.lock();
+      nOfWaiters.incrementAndGet();
+      try {
+        while (!buffer.offer(snapshot)) {
+          if (!running || isAnyWaiting()) {
+            //counts the snapshot as discarded
+            buffer.put(snapshot);
+            break;
+          }
+          changed.await();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        nOfWaiters.decrementAndGet();
+        lock.unlock();
+      }
+    }
+    notifyEvent();
+  }
+
+  /**
+   * Tells that the cell at {@code (x, y)} will not receive any more snapshots: the alignment does not wait for it
+   * anymore, once its buffered snapshots are over.
+   */
+  @Override
+  public void done(int x, int y) {
+    stateGrid.get(x, y).set(CellState.DONE);
+    notifyEvent();
+  }
+
+  private void notifyEvent() {
+    nOfEvents.incrementAndGet();
+    LockSupport.unpark(alignerThread);
+  }
+
+  private void signalWaiters() {
+    if (nOfWaiters.get() > 0) {
+      lock.lock();
+      try {
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private boolean isAnyWaiting() {
+    for (Grid.Entry<AtomicReference<CellState>> entry : stateGrid) {
+      if ((namesGrid.get(entry.getX(), entry.getY()) != null) && entry.getValue().get().equals(CellState.WAITING)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean align() {
+    //discard old snapshots and check if ready
+    Grid<Snapshot> snapshotGrid = Grid.create(bufferGrid);
+    boolean ready = true;
+    boolean fresh = false;
+    for (Grid.Entry<RingBuffer<Snapshot>> entry : bufferGrid) {
+      Snapshot snapshot;
+      while ((snapshot = entry.getValue().peek()) != null) {
+        if (snapshot.getTime() < t) {
+          lastSnapshotGrid.set(entry.getX(), entry.getY(), entry.getValue().poll());
+        } else {
+          break;
+        }
+      }
+      if (snapshot != null) {
+        fresh = true;
+      } else if (stateGrid.get(entry.getX(), entry.getY()).get().equals(CellState.DONE)) {
+        snapshot = lastSnapshotGrid.get(entry.getX(), entry.getY());
+      } else {
+        ready = ready && (namesGrid.get(entry.getX(), entry.getY()) == null);
+      }
+      snapshotGrid.set(entry.getX(), entry.getY(), snapshot);
+    }
+    //when all the cells are done, stop after the last snapshot
+    if (!ready || !fresh) {
+      return false;
+    }
+    //update time: computed from the count, rather than accumulated, to match snapshots taken exactly at k/frameRate
+    frameCount = frameCount + 1;
+    t = (double) frameCount / frameRate;
+    outputBuffer.put(snapshotGrid);
+    return true;
+  }
+
+  /**
+   * Returns the next aligned grid of snapshots, or {@code null} if none is ready.
+   */
+  public Grid<Snapshot> poll() {
+    Grid<Snapshot> snapshotGrid = outputBuffer.poll();
+    if (snapshotGrid != null) {
+      //there is room for aligning again
+      notifyEvent();
+    }
+    return snapshotGrid;
+  }
+
+  /**
+   * Returns the next aligned grid of snapshots, waiting until one is ready, or {@code null} if the aligner has been
+   * stopped.
+   */
+  public Grid<Snapshot> take() throws InterruptedException {
+    Grid<Snapshot> snapshotGrid = poll();
+    if (snapshotGrid != null) {
+      return snapshotGrid;
+    }
+    lock.lock();
+    nOfWaiters.incrementAndGet();
+    try {
+      while (running && ((snapshotGrid = poll()) == null)) {
+        changed.await();
+      }
+      return (snapshotGrid == null) ? poll() : snapshotGrid;
+    } finally {
+      nOfWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  public Grid<Snapshot> peek() {
+    return outputBuffer.peek();
+  }
+
+  /**
+   * Waits until all the snapshots received so far which can be aligned have been put in the output buffer.
+   */
+  public void awaitIdle() throws InterruptedException {
+    long nOfTargetEvents = nOfEvents.get();
+    if (nOfCheckedEvents >= nOfTargetEvents) {
+      return;
+    }
+    lock.lock();
+    nOfWaiters.incrementAndGet();
+    try {
+      while (running && (nOfCheckedEvents < nOfTargetEvents)) {
+        changed.await();
+      }
+    } finally {
+      nOfWaiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  public void stop() {
+    running = false;
+    notifyEvent();
+    lock.lock();
+    try {
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of aligned grids of snapshots produced so far.
+   */
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  public RingBuffer.OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  public RingBuffer<Snapshot> getBuffer(int x, int y) {
+    return bufferGrid.get(x, y);
+  }
+
+  public RingBuffer<Grid<Snapshot>> getOutputBuffer() {
+    return outputBuffer;
+  }
+
+  public static double time(Grid<Snapshot> snapshotGrid) {
+    for (Snapshot snapshot : snapshotGrid.values()) {
+      if (snapshot != null) {
+        return snapshot.getTime();
+      }
+    }
+    return Double.NaN;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Grid.Entry<RingBuffer<Snapshot>> entry : bufferGrid) {
+      if (namesGrid.get(entry.getX(), entry.getY()) != null) {
+        sb.append(String.format("(%d,%d): %s; ", entry.getX(), entry.getY(), entry.getValue()));
+      }
+    }
+    sb.append(String.format("aligned: %s", outputBuffer));
+    return sb.toString();
+  }
+}
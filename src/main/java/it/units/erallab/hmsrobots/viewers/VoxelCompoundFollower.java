@@ -16,13 +16,22 @@
  */
 package it.units.erallab.hmsrobots.viewers;
 
-import com.google.common.collect.EvictingQueue;
 import it.units.erallab.hmsrobots.objects.Robot;
 import it.units.erallab.hmsrobots.objects.immutable.BoundingBox;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableRobot;
 import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
 
+import java.util.NoSuchElementException;
+
 /**
+ * Framer which follows the robots of a snapshot, taking the bounding box enclosing them aggregated over the last
+ * {@code windowSize} frames, either as the largest ({@code MAX}) or as the average ({@code AVG}) bounding box.
+ * <p>
+ * The aggregate is updated incrementally, in constant amortized time, regardless of the window size: with monotonic
+ * deques of the window extremes for {@code MAX} and with running sums for {@code AVG}.
+ *
  * @author Eric Medvet <eric.medvet@gmail.com>
  */
 public class VoxelCompoundFollower implements Framer {
@@ -31,40 +40,98 @@ public class VoxelCompoundFollower implements Framer {
     MAX, AVG
   }
 
+  //sliding window extreme (max, or min with negated values) with a monotonically decreasing deque of the window values
+  private static class MonotonicDeque {
+
+    private final int windowSize;
+    private final double[] values;
+    private final long[] indexes;
+    private int head;
+    private int size;
+
+    public MonotonicDeque(int windowSize) {
+      this.windowSize = windowSize;
+      values = new double[windowSize];
+      indexes = new long[windowSize];
+    }
+
+    public double add(long index, double value) {
+      //evict values out of window
+      while ((size > 0) && (indexes[head] <= index - windowSize)) {
+        head = (head + 1) % windowSize;
+        size = size - 1;
+      }
+      //evict values which cannot be the max anymore
+      while ((size > 0) && (values[(head + size - 1) % windowSize] <= value)) {
+        size = size - 1;
+      }
+      values[(head + size) % windowSize] = value;
+      indexes[(head + size) % windowSize] = index;
+      size = size + 1;
+      return values[head];
+    }
+  }
+
   private double sizeRelativeMargin;
   private final int compounds;
   private final AggregateType aggregateType;
+  private final int windowSize;
 
-  private final EvictingQueue<BoundingBox> enclosingFrames;
+  //min.x, min.y, max.x, max.y
+  private final MonotonicDeque[] deques;
+  private final double[][] window;
+  private final double[] sums;
+  private long count;
 
   public VoxelCompoundFollower(int windowSize, double sizeRelativeMargin, int compounds, AggregateType aggregateType) {
     this.sizeRelativeMargin = sizeRelativeMargin;
     this.compounds = compounds;
     this.aggregateType = aggregateType;
-    enclosingFrames = EvictingQueue.create(windowSize);
+    this.windowSize = Math.max(1, windowSize);
+    deques = new MonotonicDeque[4];
+    for (int i = 0; i < deques.length; i++) {
+      deques[i] = new MonotonicDeque(this.windowSize);
+    }
+    window = new double[4][this.windowSize];
+    sums = new double[4];
+    count = 0;
   }
 
   @Override
   public BoundingBox getFrame(Snapshot snapshot, double ratio) {
     //get enclosing bounding box
-    BoundingBox enclosing = snapshot.getObjects().stream()
-        .filter(o -> o.getObjectClass().equals(Robot.class))
-        .limit(compounds)
-        .map(o -> o.getChildren().stream()
-            .map(c -> c.getShape().boundingBox())
-            .reduce((b1, b2) -> BoundingBox.largest(b1, b2))
-            .get())
-        .reduce((b1, b2) -> BoundingBox.largest(b1, b2))
-        .get();
-    //add to queue
-    enclosingFrames.offer(enclosing);
-    //compute aggregate frame
-    BoundingBox aggregated = enclosingFrames.stream().reduce((b1, b2) -> {
-      if (aggregateType.equals(AggregateType.AVG)) {
-        return average(b1, b2);
+    double[] enclosing = null;
+    int nOfCompounds = 0;
+    for (ImmutableObject object : snapshot.getObjects()) {
+      if (nOfCompounds >= compounds) {
+        break;
       }
-      return BoundingBox.largest(b1, b2);
-    }).get();
+      if (!object.getObjectClass().equals(Robot.class)) {
+        continue;
+      }
+      nOfCompounds = nOfCompounds + 1;
+      if (object instanceof ImmutableRobot) {
+        enclosing = enlarge(enclosing, ((ImmutableRobot) object).getBoundingBox());
+      } else {
+        for (ImmutableObject child : object.getChildren()) {
+          enclosing = enlarge(enclosing, child.getShape().boundingBox());
+        }
+      }
+    }
+    if (enclosing == null) {
+      throw new NoSuchElementException("No robot in snapshot");
+    }
+    //compute aggregate frame
+    BoundingBox aggregated;
+    if (aggregateType.equals(AggregateType.AVG)) {
+      aggregated = addAndAverage(enclosing);
+    } else {
+      aggregated = BoundingBox.build(
+          Point2.build(-deques[0].add(count, -enclosing[0]), -deques[1].add(count, -enclosing[1])),
+          Point2.build(deques[2].add(count, enclosing[2]), deques[3].add(count, enclosing[3]))
+      );
+    }
+    count = count + 1;
     //enlarge
     double cx = (aggregated.min.x + aggregated.max.x) / 2d;
     double cy = (aggregated.min.y + aggregated.max.y) / 2d;
@@ -111,10 +178,36 @@ public class VoxelCompoundFollower implements Framer {
     return adjusted;
   }
 
-  private static BoundingBox average(BoundingBox b1, BoundingBox b2) {
+  private static double[] enlarge(double[] enclosing, BoundingBox boundingBox) {
+    if (enclosing == null) {
+      return new double[]{boundingBox.min.x, boundingBox.min.y, boundingBox.max.x, boundingBox.max.y};
+    }
+    enclosing[0] = Math.min(enclosing[0], boundingBox.min.x);
+    enclosing[1] = Math.min(enclosing[1], boundingBox.min.y);
+    enclosing[2] = Math.max(enclosing[2], boundingBox.max.x);
+    enclosing[3] = Math.max(enclosing[3], boundingBox.max.y);
+    return enclosing;
+  }
+
+  private BoundingBox addAndAverage(double[] enclosing) {
+    int position = (int) (count % windowSize);
+    int n = (int) Math.min(count + 1, windowSize);
+    double[] averages = new double[4];
+    for (int i = 0; i < 4; i++) {
+      sums[i] = sums[i] - ((count >= windowSize) ? window[i][position] : 0d) + enclosing[i];
+      window[i][position] = enclosing[i];
+      if (position == windowSize - 1) {
+        //recompute sums once per window, to avoid accumulating rounding errors
+        sums[i] = 0d;
+        for (int j = 0; j < n; j++) {
+          sums[i] = sums[i] + window[i][j];
+        }
+      }
+      averages[i] = sums[i] / (double) n;
+    }
     return BoundingBox.build(
-        Point2.average(b1.min, b2.min),
-        Point2.average(b1.max, b2.max)
+        Point2.build(averages[0], averages[1]),
+        Point2.build(averages[2], averages[3])
     );
   }
 
@@ -26,7 +26,10 @@ import it.units.erallab.hmsrobots.util.ConfigurableField;
 import it.units.erallab.hmsrobots.viewers.GraphicsDrawer;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.util.HashMap;
+import java.util.Map;
 
 
 public class GenericSensor implements Configurable<GenericSensor>, Drawer {
@@ -35,13 +38,19 @@ public class GenericSensor implements Configurable<GenericSensor>, Drawer {
   private final Color fillColor = GraphicsDrawer.alphaed(Color.BLACK, 0.5f);
   @ConfigurableField
   private final Color strokeColor = Color.BLACK;
+  //not final: javac would inline a constant and changes would never clear the unit sectors
   @ConfigurableField(uiMin = 0f, uiMax = 2f * (float) Math.PI)
-  private final float spanAngle = (float) Math.PI;
+  private float spanAngle = (float) Math.PI;
   @ConfigurableField(uiMin = 0.001f * (float) Math.PI, uiMax = 0.5f * (float) Math.PI)
-  private final float angleResolution = 0.01f * (float) Math.PI;
+  private float angleResolution = 0.01f * (float) Math.PI;
   @ConfigurableField
   private final boolean sensorFrame = true;
 
+  //sectors with unit radius centered in the origin, for each nOfSensors, index, nOfValues: one for each value, then the frame
+  private final Map<Long, Path2D[]> unitSectors = new HashMap<>();
+  private double unitSectorsSpanAngle;
+  private double unitSectorsAngleResolution;
+
   private GenericSensor() {
   }
 
@@ -55,28 +64,52 @@ public class GenericSensor implements Configurable<GenericSensor>, Drawer {
     Poly voxelPoly = (Poly) object.getShape();
     double radius = Math.sqrt(voxelPoly.area()) / 2d;
     Point2 center = voxelPoly.center();
-    double angle = 0;
-    double sensorSliceAngle = spanAngle / (double) reading.getNOfSensors();
-    double sensorStartingAngle = angle + (double) reading.getIndex() * sensorSliceAngle;
-    double valueSliceAngle = sensorSliceAngle / (double) reading.getValues().length;
+    Path2D[] sectors = getUnitSectors(reading.getNOfSensors(), reading.getIndex(), reading.getValues().length);
     if (sensorFrame) {
       g.setColor(strokeColor);
-      Path2D sector = getSector(center, radius, sensorStartingAngle, sensorStartingAngle + sensorSliceAngle);
-      g.draw(sector);
+      //the stroke should not be scaled, hence the shape is transformed
+      g.draw(sectors[sectors.length - 1].createTransformedShape(new AffineTransform(radius, 0d, 0d, radius, center.x, center.y)));
     }
     g.setColor(fillColor);
+    AffineTransform oAt = g.getTransform();
     for (int i = 0; i < reading.getValues().length; i++) {
       double value = reading.getValues()[i];
       Sensor.Domain d = reading.getDomains()[i];
       double normalizedRadius = radius * Math.min(1d, Math.max(0d, (value - d.getMin()) / (d.getMax() - d.getMin())));
-      double valueStartingAngle = sensorStartingAngle + (double) i * valueSliceAngle;
-      double valueEndingAngle = valueStartingAngle + valueSliceAngle;
-      Path2D sector = getSector(center, normalizedRadius, valueStartingAngle, valueEndingAngle);
-      g.fill(sector);
+      if (normalizedRadius > 0d) {
+        g.translate(center.x, center.y);
+        g.scale(normalizedRadius, normalizedRadius);
+        g.fill(sectors[i]);
+        g.setTransform(oAt);
+      }
     }
     return false;
   }
 
+  private Path2D[] getUnitSectors(int nOfSensors, int index, int nOfValues) {
+    if ((unitSectorsSpanAngle != spanAngle) || (unitSectorsAngleResolution != angleResolution)) {
+      unitSectors.clear();
+      unitSectorsSpanAngle = spanAngle;
+      unitSectorsAngleResolution = angleResolution;
+    }
+    long key = ((long) nOfSensors << 42) | ((long) index << 21) | (long) nOfValues;
+    Path2D[] sectors = unitSectors.get(key);
+    if (sectors == null) {
+      double angle = 0;
+      double sensorSliceAngle = spanAngle / (double) nOfSensors;
+      double sensorStartingAngle = angle + (double) index * sensorSliceAngle;
+      double valueSliceAngle = sensorSliceAngle / (double) nOfValues;
+      sectors = new Path2D[nOfValues + 1];
+      for (int i = 0; i < nOfValues; i++) {
+        double valueStartingAngle = sensorStartingAngle + (double) i * valueSliceAngle;
+        sectors[i] = getSector(Point2.build(0d, 0d), 1d, valueStartingAngle, valueStartingAngle + valueSliceAngle);
+      }
+      sectors[nOfValues] = getSector(Point2.build(0d, 0d), 1d, sensorStartingAngle, sensorStartingAngle + sensorSliceAngle);
+      unitSectors.put(key, sectors);
+    }
+    return sectors;
+  }
+
   private Path2D getSector(Point2 c, double r, double a1, double a2) {
     Path2D sector = new Path2D.Double();
     sector.moveTo(c.x, c.y);
@@ -17,6 +17,7 @@
 package it.units.erallab.hmsrobots.viewers.drawers;
 
 import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
+import it.units.erallab.hmsrobots.objects.immutable.Point2;
 import it.units.erallab.hmsrobots.objects.immutable.Poly;
 import it.units.erallab.hmsrobots.util.Configurable;
 import it.units.erallab.hmsrobots.util.ConfigurableField;
@@ -41,7 +42,7 @@ public class Ground implements Configurable<Ground>, Drawer {
 
   @Override
   public boolean draw(ImmutableObject object, Graphics2D g) {
-    Path2D path = GraphicsDrawer.toPath((Poly) object.getShape(), true);
+    Path2D path = visiblePath((Poly) object.getShape(), g.getClipBounds());
     if (strokeColor != null) {
       g.setColor(strokeColor);
       g.draw(path);
@@ -53,6 +54,45 @@ public class Ground implements Configurable<Ground>, Drawer {
     return false;
   }
 
+  //vertexes of the ground poly are the bottom left corner, the profile points sorted by x, and the bottom right corner
+  private static Path2D visiblePath(Poly poly, Rectangle clip) {
+    Point2[] vertexes = poly.getVertexes();
+    int n = vertexes.length;
+    if ((clip == null) || (n < 4)) {
+      return GraphicsDrawer.toPath(poly, true);
+    }
+    //find the visible portion of the profile, with some margin, so that cut sides are not visible
+    double margin = clip.getWidth() / 10d;
+    int first = Math.max(1, lowerBound(vertexes, clip.getMinX() - margin) - 1);
+    int last = Math.min(n - 2, lowerBound(vertexes, clip.getMaxX() + margin));
+    if ((first == 1) && (last == n - 2)) {
+      return GraphicsDrawer.toPath(poly, true);
+    }
+    Path2D path = new Path2D.Double();
+    path.moveTo(vertexes[first].x, vertexes[0].y);
+    for (int i = first; i <= last; i++) {
+      path.lineTo(vertexes[i].x, vertexes[i].y);
+    }
+    path.lineTo(vertexes[last].x, vertexes[n - 1].y);
+    path.closePath();
+    return path;
+  }
+
+  //index of the first profile point with x not lower than the given x
+  private static int lowerBound(Point2[] vertexes, double x) {
+    int low = 1;
+    int high = vertexes.length - 1;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (vertexes[mid].x < x) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   @Override
   public boolean canDraw(Class c) {
     return c.isAssignableFrom(it.units.erallab.hmsrobots.objects.Ground.class);
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers.sinks;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the frames rendered by an off-screen viewer.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public interface FrameSink extends Closeable {
+
+  /**
+   * Takes the frame rendered at simulated time {@code t}. The image is reused by the caller for the next frames, hence
+   * it has to be consumed (e.g., encoded or copied) before returning.
+   */
+  void accept(BufferedImage image, double t) throws IOException;
+
+}
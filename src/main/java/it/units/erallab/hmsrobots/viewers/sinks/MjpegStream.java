@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers.sinks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sink which serves the frames as a MJPEG stream (i.e., a {@code multipart/x-mixed-replace} HTTP response), which can
+ * be watched with a browser, on an in-process HTTP server.
+ * <p>
+ * Each frame is encoded once, and only if at least one client is connected; clients which are slower than the frame
+ * rate just skip frames, since they are always sent the latest one.
+ * <p>
+ * By default, the server is bound to the loopback address, hence the stream can be watched only from the local host:
+ * to expose it to other hosts, the address to bind to has to be given explicitly.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class MjpegStream implements FrameSink {
+
+  private final static String BOUNDARY = "frame";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private byte[] jpeg;
+  private long frameCount;
+  private int nOfClients;
+  private boolean closed;
+
+  public MjpegStream(int port) throws IOException {
+    this(InetAddress.getLoopbackAddress(), port);
+  }
+
+  public MjpegStream(InetAddress address, int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(address, port), 0);
+    executor = Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "mjpeg-server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.createContext("/", this::serve);
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void accept(BufferedImage image, double t) throws IOException {
+    synchronized (this) {
+      if (nOfClients == 0) {
+        return;
+      }
+    }
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    if (!ImageIO.write(image, "jpg", baos)) {
+      throw new IOException(String.format("Cannot write image of type %d as JPEG", image.getType()));
+    }
+    synchronized (this) {
+      jpeg = baos.toByteArray();
+      frameCount = frameCount + 1;
+      notifyAll();
+    }
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    exchange.sendResponseHeaders(200, 0);
+    synchronized (this) {
+      nOfClients = nOfClients + 1;
+    }
+    long lastFrameCount = -1;
+    try (OutputStream os = exchange.getResponseBody()) {
+      while (true) {
+        byte[] localJpeg;
+        synchronized (this) {
+          while (!closed && (frameCount == lastFrameCount || jpeg == null)) {
+            try {
+              wait();
+            } catch (InterruptedException ex) {
+              return;
+            }
+          }
+          if (closed) {
+            return;
+          }
+          localJpeg = jpeg;
+          lastFrameCount = frameCount;
+        }
+        os.write(String.format(
+            "--%s\r\nContent-Type: image/jpeg\r\nContent-Length: %d\r\n\r\n",
+            BOUNDARY, localJpeg.length
+        ).getBytes(StandardCharsets.US_ASCII));
+        os.write(localJpeg);
+        os.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        os.flush();
+      }
+    } catch (IOException ex) {
+      //client disconnected
+    } finally {
+      synchronized (this) {
+        nOfClients = nOfClients - 1;
+      }
+      exchange.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers.sinks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Sink which overwrites a PNG file with each frame. The image is first written to a temporary file in the same
+ * directory, which then replaces the target file, so that readers never see a partially written image.
+ *
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class PngFile implements FrameSink {
+
+  private final File file;
+  private final File tempFile;
+
+  public PngFile(File file) {
+    this.file = file.getAbsoluteFile();
+    tempFile = new File(this.file.getParentFile(), "." + this.file.getName() + ".tmp");
+  }
+
+  @Override
+  public void accept(BufferedImage image, double t) throws IOException {
+    if (!ImageIO.write(image, "png", tempFile)) {
+      throw new IOException(String.format("Cannot write image of type %d as PNG", image.getType()));
+    }
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public void close() throws IOException {
+    Files.deleteIfExists(tempFile.toPath());
+  }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.objects;
+
+import it.units.erallab.hmsrobots.controllers.*;
+import it.units.erallab.hmsrobots.sensors.*;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.Util;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class DescriptionCodecTest {
+
+  private static Grid<Voxel.Description> voxelGrid() {
+    Voxel.Description hard = Voxel.Description.build()
+        .setConfigurable("springF", 50)
+        .setConfigurable("springScaffoldings", EnumSet.allOf(Voxel.SpringScaffolding.class))
+        .setConfigurable("sensors", List.of(
+            new Normalization(new Average(new AreaRatio(), 0.5d)),
+            new Derivative(new Velocity(true, 3d, Velocity.Axis.X))
+        ));
+    Voxel.Description soft = Voxel.Description.build()
+        .setConfigurable("springF", 5)
+        .setConfigurable("forceMethod", Voxel.ForceMethod.FORCE)
+        .setConfigurable("sensors", List.of(new Touch(), new Angle()));
+    return Grid.create(4, 3, (x, y) -> (y == 2) ? ((x % 2 == 0) ? null : soft) : hard);
+  }
+
+  private static void assertRoundtrip(Robot.Description description) throws IOException {
+    byte[] bytes = DescriptionCodec.encode(description);
+    Robot.Description decoded = DescriptionCodec.decode(bytes);
+    assertArrayEquals(bytes, DescriptionCodec.encode(decoded));
+    assertEquals(description.getVoxelDescriptionGrid().getW(), decoded.getVoxelDescriptionGrid().getW());
+    assertEquals(description.getVoxelDescriptionGrid().getH(), decoded.getVoxelDescriptionGrid().getH());
+    for (Grid.Entry<Voxel.Description> entry : description.getVoxelDescriptionGrid()) {
+      Voxel.Description decodedVoxel = decoded.getVoxelDescriptionGrid().get(entry.getX(), entry.getY());
+      if (entry.getValue() == null) {
+        assertNull(decodedVoxel);
+      } else {
+        assertEquals(entry.getValue().getSpringF(), decodedVoxel.getSpringF());
+        assertEquals(entry.getValue().getForceMethod(), decodedVoxel.getForceMethod());
+        assertEquals(entry.getValue().getSpringScaffoldings(), decodedVoxel.getSpringScaffoldings());
+        assertEquals(entry.getValue().getSensors().size(), decodedVoxel.getSensors().size());
+      }
+    }
+  }
+
+  @Test
+  public void testPhaseSin() throws IOException {
+    Grid<Voxel.Description> voxelGrid = voxelGrid();
+    PhaseSin controller = new PhaseSin(1.5d, 0.8d, Grid.create(voxelGrid, d -> (d == null) ? null : 0.25d));
+    Robot.Description description = new Robot.Description(voxelGrid, controller);
+    assertRoundtrip(description);
+    assertEquals(controller, DescriptionCodec.decode(DescriptionCodec.encode(description)).getController());
+  }
+
+  @Test
+  public void testCentralizedMLP() throws IOException {
+    Grid<Voxel.Description> voxelGrid = voxelGrid();
+    CentralizedMLP controller = new CentralizedMLP(voxelGrid, new int[]{5}, t -> Math.sin(t));
+    double[] params = new double[controller.getParams().length];
+    for (int i = 0; i < params.length; i++) {
+      params[i] = (double) i / (double) params.length;
+    }
+    controller.setParams(params);
+    Robot.Description description = new Robot.Description(voxelGrid, controller);
+    assertRoundtrip(description);
+    CentralizedMLP decoded = (CentralizedMLP) DescriptionCodec.decode(DescriptionCodec.encode(description)).getController();
+    assertArrayEquals(params, decoded.getParams());
+    assertEquals(Math.sin(2d), (double) decoded.getDrivingFunction().apply(2d));
+  }
+
+  @Test
+  public void testDistributedMLP() throws IOException {
+    Grid<Voxel.Description> voxelGrid = voxelGrid();
+    DistributedMLP controller = new DistributedMLP(voxelGrid, new int[]{2}, 1);
+    Robot.Description description = new Robot.Description(voxelGrid, controller);
+    assertRoundtrip(description);
+    DistributedMLP decoded = (DistributedMLP) DescriptionCodec.decode(DescriptionCodec.encode(description)).getController();
+    assertArrayEquals(controller.getParams(), decoded.getParams());
+    assertEquals(controller.getMlpGrid(), decoded.getMlpGrid());
+  }
+
+  @Test
+  public void testJavaFallback() throws IOException {
+    Grid<Voxel.Description> voxelGrid = voxelGrid();
+    Robot.Description description = new Robot.Description(
+        voxelGrid,
+        new TimeFunctions(Grid.create(voxelGrid.getW(), voxelGrid.getH(), (x, y) -> (Double t) -> Math.sin(t + x)))
+    );
+    assertRoundtrip(description);
+    String serialized = DescriptionCodec.serialize(description);
+    assertTrue(DescriptionCodec.isSerialized(serialized));
+    assertFalse(DescriptionCodec.isSerialized(Util.serialize(new Robot.Description(Grid.create(1, 1, Voxel.Description.build()), null), true)));
+    assertTrue(DescriptionCodec.deserialize(serialized).getController() instanceof TimeFunctions);
+  }
+
+  @Test
+  public void testCorruptInput() throws IOException {
+    Grid<Voxel.Description> voxelGrid = voxelGrid();
+    byte[] bytes = DescriptionCodec.encode(new Robot.Description(voxelGrid, null));
+    //magic, version, w, h, 12 bits, palette size, 11 doubles and 2 booleans of the first voxel description
+    int forceMethodIndex = 3 + 1 + 4 + 4 + 2 + 4 + 11 * 8 + 2;
+    assertEquals(Voxel.ForceMethod.DISTANCE.ordinal(), bytes[forceMethodIndex]);
+    byte[] corrupt = bytes.clone();
+    corrupt[forceMethodIndex] = (byte) Voxel.ForceMethod.values().length;
+    assertThrows(IOException.class, () -> DescriptionCodec.decode(corrupt));
+    byte[] negativeW = bytes.clone();
+    negativeW[4] = (byte) 0x80;
+    assertThrows(IOException.class, () -> DescriptionCodec.decode(negativeW));
+    byte[] hugeH = bytes.clone();
+    hugeH[8] = (byte) 0x10;
+    assertThrows(IOException.class, () -> DescriptionCodec.decode(hugeH));
+    byte[] zeroW = bytes.clone();
+    zeroW[7] = 0;
+    assertThrows(IOException.class, () -> DescriptionCodec.decode(zeroW));
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.objects;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.World;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class GroundTest {
+
+  private static double[] segmentLeftXs(Ground ground) {
+    Body body = ground.getBodies().get(0);
+    double[] xs = new double[body.getFixtureCount()];
+    for (int i = 0; i < xs.length; i++) {
+      BodyFixture fixture = body.getFixture(i);
+      xs[i] = fixture.getShape().createAABB().getMinX();
+    }
+    return xs;
+  }
+
+  @Test
+  public void testWindowKeepsOverlappingSegmentsInOrder() {
+    Ground ground = new Ground(new double[]{0, 10, 20, 30, 40, 50}, new double[]{5, 0, 1, 2, 3, 5});
+    ground.addTo(new World());
+    assertEquals(5, segmentLeftXs(ground).length);
+    ground.setWindow(15, 25);
+    assertEquals(List.of(10d, 20d), toList(segmentLeftXs(ground)));
+    ground.setWindow(25, 35);
+    assertEquals(List.of(20d, 30d), toList(segmentLeftXs(ground)));
+    ground.setWindow(5, 12);
+    assertEquals(List.of(0d, 10d), toList(segmentLeftXs(ground)));
+    ground.setWindow(60, 70);
+    assertEquals(List.of(), toList(segmentLeftXs(ground)));
+    ground.setWindow(-10, 100);
+    assertEquals(List.of(0d, 10d, 20d, 30d, 40d), toList(segmentLeftXs(ground)));
+  }
+
+  @Test
+  public void testUnboundedGroundRegeneratesSameSegments() {
+    Ground ground = new Ground(0.5d, 5d, 100d, 1L);
+    assertEquals(0, segmentLeftXs(ground).length);
+    ground.setWindow(100.1, 109.9);
+    List<Double> tops = tops(ground);
+    assertEquals(20, tops.size());
+    ground.setWindow(100000.1, 100009.9);
+    assertEquals(20, segmentLeftXs(ground).length);
+    ground.setWindow(100.1, 109.9);
+    assertEquals(tops, tops(ground));
+    Ground copy = new Ground(new Ground(0.5d, 5d, 100d, 1L));
+    copy.setWindow(100.1, 109.9);
+    assertEquals(tops, tops(copy));
+  }
+
+  private static List<Double> tops(Ground ground) {
+    Body body = ground.getBodies().get(0);
+    List<Double> tops = new ArrayList<>();
+    for (int i = 0; i < body.getFixtureCount(); i++) {
+      tops.add(body.getFixture(i).getShape().createAABB().getMaxY());
+    }
+    return tops;
+  }
+
+  private static List<Double> toList(double[] values) {
+    return Arrays.stream(values).boxed().collect(Collectors.toList());
+  }
+
+}
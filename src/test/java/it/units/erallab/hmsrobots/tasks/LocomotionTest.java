@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.tasks;
+
+import it.units.erallab.hmsrobots.controllers.DistributedMLP;
+import it.units.erallab.hmsrobots.objects.DescriptionCodec;
+import it.units.erallab.hmsrobots.objects.Ground;
+import it.units.erallab.hmsrobots.objects.Robot;
+import it.units.erallab.hmsrobots.objects.Voxel;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
+import it.units.erallab.hmsrobots.objects.immutable.Poly;
+import it.units.erallab.hmsrobots.sensors.AreaRatio;
+import it.units.erallab.hmsrobots.sensors.Touch;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.viewers.SnapshotListener;
+import org.dyn4j.dynamics.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class LocomotionTest {
+
+  private static Robot.Description description(Grid<Voxel.Description> body, Random random) {
+    DistributedMLP controller = new DistributedMLP(body, new int[0], 1);
+    double[] params = controller.getParams();
+    for (int i = 0; i < params.length; i++) {
+      params[i] = random.nextDouble() * 2d - 1d;
+    }
+    controller.setParams(params);
+    return new Robot.Description(body, controller);
+  }
+
+  private static Grid<Voxel.Description> body(int w, int h) {
+    Voxel.Description voxelDescription = Voxel.Description.build();
+    voxelDescription.getSensors().add(new AreaRatio());
+    voxelDescription.getSensors().add(new Touch());
+    return Grid.create(w, h, voxelDescription);
+  }
+
+  //controllers keep a state across steps, hence each episode gets a new one
+  private static List<Robot.Description> descriptions(Grid<Voxel.Description> largeBody, Grid<Voxel.Description> smallBody) {
+    Random random = new Random(1);
+    List<Robot.Description> descriptions = new ArrayList<>();
+    descriptions.add(description(largeBody, random));
+    descriptions.add(description(largeBody, random));
+    descriptions.add(description(smallBody, random));
+    descriptions.add(description(largeBody, random));
+    return descriptions;
+  }
+
+  @Test
+  public void testReuseGivesSameOutcomes() {
+    Grid<Voxel.Description> largeBody = body(3, 2);
+    Grid<Voxel.Description> smallBody = body(2, 2);
+    List<Locomotion.Metric> metrics = List.of(Locomotion.Metric.TRAVEL_X_VELOCITY, Locomotion.Metric.CENTER_AVG_Y);
+    Locomotion fresh = new Locomotion(5d, Locomotion.createTerrain("uneven5"), metrics, 0d, new Settings(), false);
+    Locomotion reusing = new Locomotion(5d, Locomotion.createTerrain("uneven5"), metrics, 0d, new Settings(), true);
+    List<List<Double>> freshOutcomes = new ArrayList<>();
+    for (Robot.Description description : descriptions(largeBody, smallBody)) {
+      freshOutcomes.add(fresh.apply(description));
+    }
+    List<List<Double>> reusingOutcomes = new ArrayList<>();
+    for (Robot.Description description : descriptions(largeBody, smallBody)) {
+      reusingOutcomes.add(reusing.apply(description));
+    }
+    assertEquals(freshOutcomes, reusingOutcomes);
+    //only the second robot has the same body of the previous one
+    assertEquals(0, fresh.getNOfReusedRobots());
+    assertEquals(1, reusing.getNOfReusedRobots());
+  }
+
+  @Test
+  public void testReuseWithDecodedDescriptions() throws IOException {
+    Grid<Voxel.Description> largeBody = body(3, 2);
+    Grid<Voxel.Description> smallBody = body(2, 2);
+    List<Locomotion.Metric> metrics = List.of(Locomotion.Metric.TRAVEL_X_VELOCITY, Locomotion.Metric.CENTER_AVG_Y);
+    Locomotion fresh = new Locomotion(5d, Locomotion.createTerrain("uneven5"), metrics, 0d, new Settings(), false);
+    Locomotion reusing = new Locomotion(5d, Locomotion.createTerrain("uneven5"), metrics, 0d, new Settings(), true);
+    List<List<Double>> freshOutcomes = new ArrayList<>();
+    List<List<Double>> reusingOutcomes = new ArrayList<>();
+    //decoded descriptions have their own voxel descriptions and sensors
+    for (Robot.Description description : descriptions(largeBody, smallBody)) {
+      byte[] bytes = DescriptionCodec.encode(description);
+      freshOutcomes.add(fresh.apply(DescriptionCodec.decode(bytes)));
+      reusingOutcomes.add(reusing.apply(DescriptionCodec.decode(bytes)));
+    }
+    assertEquals(freshOutcomes, reusingOutcomes);
+    assertEquals(1, reusing.getNOfReusedRobots());
+  }
+
+  @Test
+  public void testStreamingGround() {
+    Grid<Voxel.Description> body = body(3, 2);
+    List<Locomotion.Metric> metrics = List.of(Locomotion.Metric.TRAVEL_X_VELOCITY, Locomotion.Metric.CENTER_AVG_Y);
+    Locomotion fresh = new Locomotion(30d, Locomotion.createGround("streaming1-0.5"), metrics, 1d, new Settings(), false);
+    Locomotion reusing = new Locomotion(30d, Locomotion.createGround("streaming1-0.5"), metrics, 1d, new Settings(), true);
+    List<Integer> nOfSegments = new ArrayList<>();
+    SnapshotListener listener = snapshot -> {
+      for (ImmutableObject object : snapshot.getObjects()) {
+        if (object.getObjectClass().equals(Ground.class)) {
+          nOfSegments.add(((Poly) object.getShape()).getVertexes().length - 3);
+        }
+      }
+    };
+    List<Double> outcome = fresh.apply(description(body, new Random(1)), listener);
+    assertFalse(outcome.stream().anyMatch(v -> v.isNaN()));
+    assertEquals(outcome, fresh.apply(description(body, new Random(1))));
+    assertEquals(outcome, reusing.apply(description(body, new Random(1))));
+    assertEquals(outcome, reusing.apply(description(body, new Random(1))));
+    assertEquals(1, reusing.getNOfReusedRobots());
+    //the window around the robot is about 40 long, i.e., about 80 segments, for the whole episode
+    assertFalse(nOfSegments.isEmpty());
+    assertTrue(nOfSegments.stream().allMatch(n -> (n > 0) && (n <= 100)));
+  }
+
+  @Test
+  public void testCachedTerrainsAreCopies() {
+    double[][] terrain = Locomotion.createTerrain("uneven5");
+    double y = terrain[1][1];
+    terrain[1][1] = y + 1d;
+    assertEquals(y, Locomotion.createTerrain("uneven5")[1][1]);
+    assertEquals(y + 1d, terrain[1][1]);
+    assertNull(Locomotion.createTerrain("unknown"));
+    assertNull(Locomotion.createGround("unknown"));
+    assertNotNull(Locomotion.createGround("streaming5"));
+  }
+
+}
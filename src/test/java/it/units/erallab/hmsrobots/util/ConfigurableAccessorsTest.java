@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import it.units.erallab.hmsrobots.objects.Voxel;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableObject;
+import it.units.erallab.hmsrobots.objects.immutable.ImmutableReading;
+import it.units.erallab.hmsrobots.sensors.Velocity;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class ConfigurableAccessorsTest {
+
+  public static class Base implements Configurable<Base> {
+    @ConfigurableField
+    private int value = 1;
+    @ConfigurableField
+    private String name = "base";
+  }
+
+  public static class Derived extends Base {
+    @ConfigurableField
+    private double value = 2d;
+  }
+
+  @Test
+  public void testSubclassFieldsHideSuperclassFields() {
+    Derived derived = new Derived();
+    assertEquals(Set.of("value", "name"), derived.configurables());
+    assertEquals(2d, derived.getConfigurable("value"));
+    assertEquals(double.class, derived.typeOfConfigurable("value"));
+    assertEquals("base", derived.getConfigurable("name"));
+  }
+
+  @Test
+  public void testIntegerIsWidenedToDouble() {
+    Derived derived = new Derived();
+    assertSame(derived, derived.setConfigurable("value", 5));
+    assertEquals(5d, derived.getConfigurable("value"));
+    assertEquals(5d, derived.value);
+    assertEquals(1, ((Base) derived).value);
+  }
+
+  @Test
+  public void testUnknownKeys() {
+    Base base = new Base();
+    long version = Configurable.configurationVersion();
+    assertSame(base, base.setConfigurable("unknown", 1));
+    assertNull(base.getConfigurable("unknown"));
+    assertNull(base.typeOfConfigurable("unknown"));
+    assertEquals(version, Configurable.configurationVersion());
+  }
+
+  @Test
+  public void testSetChangesVersion() {
+    Base base = new Base();
+    long version = Configurable.configurationVersion();
+    base.setConfigurable("name", "other");
+    assertNotEquals(version, Configurable.configurationVersion());
+  }
+
+  @Test
+  public void testCachedSensorConfigurationIsClearedAfterSet() {
+    Velocity velocity = new Velocity(false, 1d, Velocity.Axis.X);
+    Voxel.Description description = Voxel.Description.build();
+    description.getSensors().add(velocity);
+    Voxel voxel = Voxel.build(null, description);
+    voxel.sense(0d);
+    Configuration<?> configuration = reading(voxel).getConfiguration();
+    assertSame(configuration, reading(voxel).getConfiguration());
+    velocity.setConfigurable("rotated", true);
+    Configuration<?> newConfiguration = reading(voxel).getConfiguration();
+    assertNotSame(configuration, newConfiguration);
+    assertEquals(false, ((Configuration<?>) ((Map<?, ?>) configuration.getValue()).get("rotated")).getValue());
+    assertEquals(true, ((Configuration<?>) ((Map<?, ?>) newConfiguration.getValue()).get("rotated")).getValue());
+  }
+
+  private static ImmutableReading reading(Voxel voxel) {
+    for (ImmutableObject child : voxel.immutable().getChildren()) {
+      if (child instanceof ImmutableReading) {
+        return (ImmutableReading) child;
+      }
+    }
+    return null;
+  }
+
+}
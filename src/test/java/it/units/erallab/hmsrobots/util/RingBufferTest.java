@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class RingBufferTest {
+
+  @Test
+  public void testDrop() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(3, RingBuffer.OverflowPolicy.DROP);
+    for (int i = 0; i < 5; i++) {
+      buffer.put(i);
+    }
+    assertEquals(3, buffer.size());
+    assertEquals(2, buffer.getDiscarded());
+    assertEquals(0, (int) buffer.poll());
+    assertEquals(1, (int) buffer.poll());
+    assertEquals(2, (int) buffer.poll());
+    assertNull(buffer.poll());
+    assertEquals(3, buffer.getMaxSize());
+  }
+
+  @Test
+  public void testDownsample() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(4, RingBuffer.OverflowPolicy.DOWNSAMPLE);
+    for (int i = 0; i < 100; i++) {
+      buffer.put(i);
+    }
+    assertEquals(4, buffer.size());
+    //after the overflow, only some elements are accepted, hence the buffer does not keep the 5th one
+    assertEquals(96, buffer.getDiscarded());
+  }
+
+  @Test
+  public void testDownsampleRecoversWithSmallCapacity() {
+    RingBuffer<Integer> buffer = new RingBuffer<>(2, RingBuffer.OverflowPolicy.DOWNSAMPLE);
+    buffer.put(0);
+    buffer.put(1);
+    assertFalse(buffer.put(2));
+    buffer.poll();
+    buffer.poll();
+    //once empty, the stride gets back to 1, hence no element is discarded
+    assertTrue(buffer.put(3));
+    assertTrue(buffer.put(4));
+    assertEquals(1, buffer.getDiscarded());
+  }
+
+  @Test
+  public void testBlock() throws Exception {
+    RingBuffer<Integer> buffer = new RingBuffer<>(2, RingBuffer.OverflowPolicy.BLOCK);
+    int n = 10000;
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Future<?> producer = executor.submit(() -> {
+      for (int i = 0; i < n; i++) {
+        buffer.put(i);
+      }
+    });
+    long sum = 0;
+    int expected = 0;
+    while (expected < n) {
+      Integer i = buffer.poll();
+      if (i != null) {
+        assertEquals(expected, (int) i);
+        sum = sum + i;
+        expected = expected + 1;
+      }
+    }
+    producer.get();
+    executor.shutdown();
+    assertEquals((long) n * (n - 1) / 2, sum);
+    assertEquals(0, buffer.getDiscarded());
+    assertTrue(buffer.getMaxSize() <= 2);
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class StepProfilerTest {
+
+  private static long[] sink;
+
+  @Test
+  public void testAllocations() {
+    StepProfiler profiler = new StepProfiler(true);
+    Assumptions.assumeTrue(profiler.isMeasuringAllocations());
+    for (int i = 0; i < 10; i++) {
+      long nanos = profiler.start();
+      sink = new long[1024];
+      nanos = profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+      profiler.stop(StepProfiler.Phase.FORCES, nanos);
+      profiler.step(0.1d, 1);
+    }
+    assertTrue(profiler.getBytes(StepProfiler.Phase.PHYSICS) >= 10 * 1024 * Long.BYTES);
+    assertEquals(0L, profiler.getBytes(StepProfiler.Phase.FORCES));
+    assertTrue(profiler.toMap().containsKey("physics.bytes"));
+  }
+
+  @Test
+  public void testAllocationsOfAnotherThread() throws InterruptedException {
+    StepProfiler profiler = new StepProfiler(true);
+    Assumptions.assumeTrue(profiler.isMeasuringAllocations());
+    Thread thread = new Thread(() -> {
+      for (int i = 0; i < 10; i++) {
+        long nanos = profiler.start();
+        sink = new long[1024];
+        profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+      }
+    });
+    thread.start();
+    thread.join();
+    assertTrue(profiler.getBytes(StepProfiler.Phase.PHYSICS) >= 10 * 1024 * Long.BYTES);
+  }
+
+  @Test
+  public void testNoAllocationsByDefault() {
+    StepProfiler profiler = new StepProfiler();
+    long nanos = profiler.start();
+    sink = new long[1024];
+    profiler.stop(StepProfiler.Phase.PHYSICS, nanos);
+    assertFalse(profiler.isMeasuringAllocations());
+    assertEquals(0L, profiler.getBytes(StepProfiler.Phase.PHYSICS));
+    assertFalse(profiler.toMap().containsKey("physics.bytes"));
+  }
+
+  @Test
+  public void testDisabledIgnoresAdd() {
+    StepProfiler profiler = new StepProfiler();
+    long nanos = profiler.start();
+    profiler.stop(StepProfiler.Phase.GROUND, nanos);
+    profiler.step(0.1d, 1);
+    StepProfiler.DISABLED.add(profiler);
+    assertEquals(0L, StepProfiler.DISABLED.getSteps());
+    assertEquals(0L, StepProfiler.DISABLED.getCount(StepProfiler.Phase.GROUND));
+    StepProfiler total = new StepProfiler();
+    total.add(profiler);
+    assertEquals(1L, total.getCount(StepProfiler.Phase.GROUND));
+  }
+
+}
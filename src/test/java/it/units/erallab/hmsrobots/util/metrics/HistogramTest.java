@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.util.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class HistogramTest {
+
+  @Test
+  public void testQuantiles() {
+    Histogram histogram = new MetricsRegistry().histogram("h", null);
+    for (int i = 1; i <= 1000; i++) {
+      histogram.observe(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500d, histogram.getSum(), 1e-6);
+    //upper bounds of buckets are at most 1/SUB_BUCKETS larger than the value
+    assertEquals(500d, histogram.quantile(0.5d), 500d / Histogram.SUB_BUCKETS);
+    assertTrue(histogram.quantile(0.5d) >= 500d);
+    assertEquals(1000d, histogram.quantile(1d), 1000d / Histogram.SUB_BUCKETS);
+  }
+
+  @Test
+  public void testExposition() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.histogram("h", "a histogram").observe(3d);
+    registry.histogram("h", "a histogram").observe(1e20d);
+    registry.counter("c", null).add(2d);
+    String text = registry.toString();
+    assertTrue(text.contains("# TYPE h histogram\n"));
+    assertTrue(text.contains("h_bucket{le=\"3.5\"} 1\n"));
+    assertTrue(text.contains("h_bucket{le=\"+Inf\"} 2\n"));
+    assertTrue(text.contains("h_count 2\n"));
+    assertTrue(text.contains("# TYPE c counter\nc 2\n"));
+  }
+
+  @Test
+  public void testStableBuckets() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Histogram histogram = registry.histogram("h", null);
+    String empty = registry.toString();
+    histogram.observe(3d);
+    String nonEmpty = registry.toString();
+    assertEquals(empty.split("\n").length, nonEmpty.split("\n").length);
+    assertTrue(empty.contains("h_bucket{le=\"3.5\"} 0\n"));
+    assertTrue(nonEmpty.contains("h_bucket{le=\"3.5\"} 1\n"));
+    assertTrue(nonEmpty.contains("h_bucket{le=\"" + Histogram.format(Math.scalb(1.25d, Histogram.MIN_EXPONENT)) + "\"} 0\n"));
+  }
+
+  @Test
+  public void testWrongType() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("m", null);
+    assertThrows(IllegalArgumentException.class, () -> registry.histogram("m", null));
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.RgbToYuv420j;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class FrameEncoderTest {
+
+  @Test
+  public void testSameAsJcodecWithSaturatedColors() {
+    int w = 64;
+    int h = 48;
+    int[] levels = new int[]{0, 30, 128, 220, 255};
+    Random random = new Random(1);
+    byte[] bgr = new byte[w * h * 3];
+    Picture rgb = Picture.create(w, h, ColorSpace.RGB);
+    byte[] rgbData = rgb.getPlaneData(0);
+    for (int i = 0; i < w * h; i++) {
+      for (int c = 0; c < 3; c++) {
+        int value = levels[random.nextInt(levels.length)];
+        bgr[3 * i + 2 - c] = (byte) value;
+        rgbData[3 * i + c] = (byte) (value - 128);
+      }
+    }
+    Picture expected = Picture.create(w, h, ColorSpace.YUV420J);
+    new RgbToYuv420j().transform(rgb, expected);
+    Picture actual = Picture.create(w, h, ColorSpace.YUV420J);
+    FrameEncoder.toYUV420(bgr, actual);
+    for (int plane = 0; plane < 3; plane++) {
+      assertArrayEquals(expected.getPlaneData(plane), actual.getPlaneData(plane));
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Eric Medvet <eric.medvet@gmail.com> (as eric)
+ *
+ * This program is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  See the GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package it.units.erallab.hmsrobots.viewers;
+
+import it.units.erallab.hmsrobots.objects.immutable.Snapshot;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RingBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Eric Medvet <eric.medvet@gmail.com>
+ */
+public class SnapshotGridAlignerTest {
+
+  private static final double FRAME_RATE = 10d;
+
+  private static Runnable episode(SnapshotGridAligner aligner, int x, int y, int nOfSnapshots, CountDownLatch start) {
+    return () -> {
+      SnapshotListener listener = aligner.listener(x, y);
+      listener.listen(new Snapshot(0d, Collections.emptyList()));
+      //wait for the other episodes to be started too
+      start.countDown();
+      try {
+        start.await();
+      } catch (InterruptedException ex) {
+        return;
+      }
+      for (int i = 1; i < nOfSnapshots; i++) {
+        listener.listen(new Snapshot((double) i / FRAME_RATE, Collections.emptyList()));
+      }
+      aligner.done(x, y);
+    };
+  }
+
+  //counts the aligned grids until the aligner is stopped
+  private static Future<Integer> consumer(SnapshotGridAligner aligner, ExecutorService executor) {
+    return executor.submit(() -> {
+      int count = 0;
+      while (aligner.take() != null) {
+        count = count + 1;
+      }
+      return count;
+    });
+  }
+
+  private static int countFrames(SnapshotGridAligner aligner, List<Future<?>> episodes, Future<Integer> consumer) throws Exception {
+    for (Future<?> episode : episodes) {
+      episode.get();
+    }
+    aligner.awaitIdle();
+    while (!aligner.getOutputBuffer().isEmpty()) {
+      Thread.sleep(1);
+    }
+    aligner.stop();
+    return consumer.get();
+  }
+
+  @Test
+  public void testBlockLosesNothingWhenAllCellsRun() {
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      SnapshotGridAligner aligner = new SnapshotGridAligner(Grid.create(2, 1, "cell"), FRAME_RATE, 4, RingBuffer.OverflowPolicy.BLOCK, executor);
+      Future<Integer> consumer = consumer(aligner, executor);
+      CountDownLatch start = new CountDownLatch(2);
+      List<Future<?>> episodes = new ArrayList<>();
+      episodes.add(executor.submit(episode(aligner, 0, 0, 50, start)));
+      episodes.add(executor.submit(episode(aligner, 1, 0, 50, start)));
+      assertEquals(50, countFrames(aligner, episodes, consumer));
+      assertEquals(0, aligner.getBuffer(0, 0).getDiscarded());
+      assertEquals(0, aligner.getBuffer(1, 0).getDiscarded());
+      executor.shutdownNow();
+    });
+  }
+
+  @Test
+  public void testBlockDoesNotDeadlockWithQueuedCells() {
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      ExecutorService alignerExecutor = Executors.newFixedThreadPool(2);
+      //one thread for 4 cells: each episode starts only after the previous one is done
+      ExecutorService episodeExecutor = Executors.newSingleThreadExecutor();
+      SnapshotGridAligner aligner = new SnapshotGridAligner(Grid.create(2, 2, "cell"), FRAME_RATE, 4, RingBuffer.OverflowPolicy.BLOCK, alignerExecutor);
+      Future<Integer> consumer = consumer(aligner, alignerExecutor);
+      List<Future<?>> episodes = new ArrayList<>();
+      for (int x = 0; x < 2; x++) {
+        for (int y = 0; y < 2; y++) {
+          episodes.add(episodeExecutor.submit(episode(aligner, x, y, 20, new CountDownLatch(1))));
+        }
+      }
+      assertTrue(countFrames(aligner, episodes, consumer) > 0);
+      alignerExecutor.shutdownNow();
+      episodeExecutor.shutdownNow();
+    });
+  }
+
+}